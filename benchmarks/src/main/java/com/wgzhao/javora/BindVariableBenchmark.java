@@ -0,0 +1,122 @@
+package com.wgzhao.javora;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Parameterized kinds cycling over every tablespace, once the way javora used to run them (argument formatted
+ * into the statement text) and once with bind variables through the pooled statement cache.
+ * <p>
+ * Besides throughput, {@code parseCalls} and {@code hardParses} report how many statement texts reached the
+ * database and how many of them were new to it during the iteration.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 3, time = 2)
+@Fork(1)
+public class BindVariableBenchmark
+{
+    @Param({"tablespace", "tablespace_abs", "user_status"})
+    public String kind;
+
+    @Param({"300"})
+    public int entities;
+
+    private Collector collector;
+    private ConnectionPools pools;
+    private Target target;
+    private int next;
+
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    @State(Scope.Thread)
+    public static class Parses
+    {
+        public long parseCalls;
+        public long hardParses;
+
+        @Setup(Level.Iteration)
+        public void reset()
+        {
+            parseCalls = 0;
+            hardParses = 0;
+            StandInDriver.resetCounters();
+        }
+
+        void record(long calls, long hard)
+        {
+            parseCalls += StandInDriver.parseCalls() - calls;
+            hardParses += StandInDriver.hardParses() - hard;
+        }
+    }
+
+    @Setup(Level.Trial)
+    public void setup()
+            throws SQLException
+    {
+        target = StandInDatabase.create("bind_" + kind, entities);
+        pools = new ConnectionPools(1, ConnectionPools.DEFAULT_IDLE_TIMEOUT_MS);
+        collector = new Collector(pools);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown()
+    {
+        collector.close();
+    }
+
+    private String nextArgument()
+    {
+        int i = next++ % entities;
+        return "user_status".equals(kind) ? StandInDatabase.userName(i) : StandInDatabase.tablespaceName(i);
+    }
+
+    @Benchmark
+    public String literal(Parses parses)
+            throws SQLException
+    {
+        long calls = StandInDriver.parseCalls();
+        long hard = StandInDriver.hardParses();
+        String sql = OracleMonitor.sql(kind).replace("?", "'%s'");
+        ConnectionPool pool = pools.get(target);
+        PooledConnection connection = pool.borrow();
+        try (Statement statement = connection.getConnection().createStatement();
+                ResultSet resultSet = statement.executeQuery(String.format(sql, nextArgument()))) {
+            String value = resultSet.next() ? resultSet.getString(1) : null;
+            parses.record(calls, hard);
+            return value;
+        }
+        finally {
+            pool.release(connection, false);
+        }
+    }
+
+    @Benchmark
+    public String bind(Parses parses)
+            throws SQLException
+    {
+        long calls = StandInDriver.parseCalls();
+        long hard = StandInDriver.hardParses();
+        String value = collector.collect(target, kind, nextArgument());
+        parses.record(calls, hard);
+        return value;
+    }
+}
@@ -0,0 +1,153 @@
+package com.wgzhao.javora;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Wall time from launching the one-shot external check until it printed its first line, against a stand-in
+ * database on disk, for each class data sharing setup of the launched JVM: {@code off}, {@code default} (the archive
+ * of JDK classes shipped with the JDK) and {@code appcds} (the archive of javora's classes written by
+ * {@code mvn package}).
+ * <p>
+ * The check runs as {@code java -cp javora.jar:benchmarks.jar com.wgzhao.javora.OracleMonitor --url ... -k kind},
+ * the benchmarks jar only supplying the stand-in driver. Run it from the project root after {@code mvn install},
+ * or pass {@code -p jar=... -p archive=...}. An archive only works with the JDK that wrote it and the jar at the
+ * same path; {@code appcds} makes the launched JVM fail instead of quietly starting without it, and a trial fails
+ * when the check prints anything but the value the same check gives in process.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 20)
+@Fork(1)
+public class ColdStartBenchmark
+{
+    @Param({"off", "default", "appcds"})
+    public String share;
+
+    @Param({"check_active", "all_stats"})
+    public String kind;
+
+    @Param({"target/javora-1.0.0-SNAPSHOT-shaded.jar"})
+    public String jar;
+
+    @Param({"target/javora.jsa"})
+    public String archive;
+
+    private Path directory;
+    private List<String> command;
+    private String expected;
+    private Process process;
+    private BufferedReader output;
+    private String firstLine;
+
+    @Setup(Level.Trial)
+    public void setup()
+            throws IOException, SQLException, URISyntaxException
+    {
+        File javoraJar = new File(jar).getAbsoluteFile();
+        if (!javoraJar.isFile()) {
+            throw new IllegalStateException(javoraJar + " not found, run mvn install first or pass -p jar=<path>");
+        }
+        directory = Files.createTempDirectory("javora-cold-start");
+        Target target = StandInDatabase.create("file:" + directory.resolve("standin"), 10);
+        try (Collector collector = new Collector(new ConnectionPools(1, ConnectionPools.DEFAULT_IDLE_TIMEOUT_MS))) {
+            expected = collector.collect(target, kind);
+        }
+
+        command = new ArrayList<>();
+        command.add(Paths.get(System.getProperty("java.home"), "bin", "java").toString());
+        switch (share) {
+            case "off":
+                command.add("-Xshare:off");
+                break;
+            case "default":
+                break;
+            case "appcds":
+                command.add("-Xshare:on");
+                command.add("-XX:SharedArchiveFile=" + new File(archive).getAbsolutePath());
+                break;
+            default:
+                throw new IllegalArgumentException("unknown share " + share);
+        }
+        // javora first, the archive was written for a class path starting with it
+        String standIn = new File(StandInDriver.class.getProtectionDomain().getCodeSource().getLocation().toURI()).getPath();
+        command.add("-cp");
+        command.add(javoraJar.getPath() + File.pathSeparator + standIn);
+        command.add(OracleMonitor.class.getName());
+        command.add("--url");
+        command.add(target.getUrl());
+        command.add("-u");
+        command.add(target.getUsername());
+        command.add("-p");
+        command.add(target.getPassword());
+        command.add("-k");
+        command.add(kind);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown()
+            throws IOException
+    {
+        try (Stream<Path> files = Files.walk(directory)) {
+            for (Path file : files.sorted(Comparator.reverseOrder()).collect(Collectors.toList())) {
+                Files.delete(file);
+            }
+        }
+    }
+
+    @Benchmark
+    public String firstLine()
+            throws IOException
+    {
+        process = new ProcessBuilder(command).redirectErrorStream(true).start();
+        output = new BufferedReader(new InputStreamReader(process.getInputStream(), StandardCharsets.UTF_8));
+        firstLine = output.readLine();
+        return firstLine;
+    }
+
+    // outside the measured time: the rest of the output, the exit, and whether the check answered correctly
+    @TearDown(Level.Invocation)
+    public void finish()
+            throws IOException, InterruptedException
+    {
+        String rest;
+        try (BufferedReader reader = output) {
+            rest = reader.lines().collect(Collectors.joining("\n"));
+        }
+        int exit = process.waitFor();
+        if (exit != 0 || !expected.equals(rest.isEmpty() ? firstLine : firstLine + "\n" + rest)) {
+            throw new IllegalStateException("check exited with " + exit + " printing " + firstLine + "\n" + rest
+                    + "\ninstead of " + expected + "\ncommand: " + String.join(" ", command));
+        }
+    }
+}
@@ -0,0 +1,67 @@
+package com.wgzhao.javora;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.sql.SQLException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Whole checks through {@link Collector#collect(Target, String, String...)} without a result cache, four threads
+ * sharing one connection pool: borrowing a connection, running the cached statement, reading and formatting the
+ * rows, giving the connection back. A pool smaller than the number of threads shows the wait for a connection.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 3, time = 2)
+@Threads(4)
+@Fork(1)
+public class CollectBenchmark
+{
+    @Param({"check_active", "commits", "all_stats", "all_gauges", "all_tablespaces", "show_tablespaces"})
+    public String kind;
+
+    @Param({"1", "4"})
+    public int poolSize;
+
+    @Param({"300"})
+    public int entities;
+
+    private Collector collector;
+    private Target target;
+
+    @Setup(Level.Trial)
+    public void setup()
+            throws SQLException
+    {
+        target = StandInDatabase.create("collect_" + kind, entities);
+        collector = new Collector(new ConnectionPools(poolSize, ConnectionPools.DEFAULT_IDLE_TIMEOUT_MS));
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown()
+    {
+        collector.close();
+    }
+
+    @Benchmark
+    public String collect()
+            throws SQLException
+    {
+        return collector.collect(target, kind);
+    }
+}
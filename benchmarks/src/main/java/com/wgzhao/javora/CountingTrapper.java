@@ -0,0 +1,150 @@
+package com.wgzhao.javora;
+
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+import org.json.simple.parser.JSONParser;
+
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A local stand-in for the Zabbix server trapper. It checks every request byte by byte against the protocol
+ * (ZBXD header, flags, little endian length, reserved bytes, exactly that much JSON), checks that each value
+ * carries host, key, value and a timestamp, answers like the server does, and counts what arrived. Unlike the
+ * FakeTrapper of the unit tests it keeps batch sizes rather than the requests, so a long trial stays cheap.
+ */
+public class CountingTrapper
+        implements Closeable
+{
+    private final ServerSocket serverSocket;
+    private final Thread acceptor;
+    private final AtomicLong values = new AtomicLong();
+    private final AtomicLong requests = new AtomicLong();
+    private final List<Integer> batchSizes = new CopyOnWriteArrayList<>();
+    private final List<String> errors = new CopyOnWriteArrayList<>();
+
+    public CountingTrapper()
+            throws IOException
+    {
+        serverSocket = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+        acceptor = new Thread(this::accept, "counting-trapper");
+        acceptor.setDaemon(true);
+        acceptor.start();
+    }
+
+    public InetSocketAddress getAddress()
+    {
+        return (InetSocketAddress) serverSocket.getLocalSocketAddress();
+    }
+
+    public long getValues()
+    {
+        return values.get();
+    }
+
+    public long getRequests()
+    {
+        return requests.get();
+    }
+
+    public List<Integer> getBatchSizes()
+    {
+        return batchSizes;
+    }
+
+    /**
+     * Protocol violations seen so far, empty if every request was well formed.
+     */
+    public List<String> getErrors()
+    {
+        return errors;
+    }
+
+    private void accept()
+    {
+        while (!serverSocket.isClosed()) {
+            try (Socket socket = serverSocket.accept()) {
+                handle(socket);
+            }
+            catch (IOException e) {
+                if (!serverSocket.isClosed()) {
+                    errors.add("connection failed: " + e);
+                }
+            }
+        }
+    }
+
+    private void handle(Socket socket)
+            throws IOException
+    {
+        DataInputStream in = new DataInputStream(socket.getInputStream());
+        byte[] header = new byte[13];
+        in.readFully(header);
+        if (header[0] != 'Z' || header[1] != 'B' || header[2] != 'X' || header[3] != 'D') {
+            errors.add("bad magic");
+            return;
+        }
+        if (header[4] != 0x01) {
+            errors.add("unexpected flags " + header[4]);
+            return;
+        }
+        int length = ZabbixProtocol.getIntLE(header, 5);
+        if (ZabbixProtocol.getIntLE(header, 9) != 0) {
+            errors.add("reserved bytes not zero");
+        }
+        byte[] payload = new byte[length];
+        in.readFully(payload);
+
+        int count;
+        try {
+            JSONObject request = (JSONObject) new JSONParser().parse(new String(payload, StandardCharsets.UTF_8));
+            if (!"sender data".equals(request.get("request"))) {
+                errors.add("unexpected request " + request.get("request"));
+            }
+            if (!(request.get("clock") instanceof Long) || !(request.get("ns") instanceof Long)) {
+                errors.add("request without clock/ns");
+            }
+            JSONArray data = (JSONArray) request.get("data");
+            for (Object o : data) {
+                JSONObject value = (JSONObject) o;
+                for (String field : new String[] {"host", "key", "value"}) {
+                    if (!(value.get(field) instanceof String)) {
+                        errors.add("value without " + field + ": " + value);
+                    }
+                }
+                if (!(value.get("clock") instanceof Long) || !(value.get("ns") instanceof Long)) {
+                    errors.add("value without clock/ns: " + value);
+                }
+            }
+            count = data.size();
+        }
+        catch (Exception e) {
+            errors.add("malformed payload: " + e);
+            return;
+        }
+        batchSizes.add(count);
+        requests.incrementAndGet();
+
+        OutputStream out = socket.getOutputStream();
+        ZabbixProtocol.write(out, "{\"response\":\"success\",\"info\":\"processed: " + count + "; failed: 0; total: "
+                + count + "; seconds spent: 0.000100\"}");
+        values.addAndGet(count);
+    }
+
+    @Override
+    public void close()
+            throws IOException
+    {
+        serverSocket.close();
+    }
+}
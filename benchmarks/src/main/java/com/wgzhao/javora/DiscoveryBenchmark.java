@@ -0,0 +1,55 @@
+package com.wgzhao.javora;
+
+import org.h2.tools.SimpleResultSet;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.sql.SQLException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Rendering the low-level discovery JSON of the {@code show_*} kinds ({@code {"data":[{"{#TABLESPACE}":...}]}}) for
+ * databases with a few to a few thousand entities, from rows replayed from memory like {@link FormatBenchmark}.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 3, time = 2)
+@Fork(1)
+public class DiscoveryBenchmark
+{
+    @Param({"show_tablespaces", "show_asm_volumes"})
+    public String kind;
+
+    @Param({"10", "300", "3000"})
+    public int entities;
+
+    private SimpleResultSet rows;
+
+    @Setup(Level.Trial)
+    public void setup()
+            throws SQLException
+    {
+        Target target = StandInDatabase.create("discovery_" + kind + "_" + entities, entities);
+        rows = StandInDatabase.rows(target, OracleMonitor.sql(kind));
+    }
+
+    @Benchmark
+    public String render()
+            throws SQLException
+    {
+        rows.beforeFirst();
+        return OracleMonitor.format(kind, rows);
+    }
+}
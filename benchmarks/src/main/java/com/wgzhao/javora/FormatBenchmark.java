@@ -0,0 +1,56 @@
+package com.wgzhao.javora;
+
+import org.h2.tools.SimpleResultSet;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.sql.SQLException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Turning the rows of a kind into the value javora answers with, without the round trip: the rows are read from the
+ * stand-in once and replayed from memory. Covers a single value, the {@code all_stats} and {@code all_gauges}
+ * objects and the per entity JSON of {@code all_tablespaces} and {@code all_users}.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 3, time = 2)
+@Fork(1)
+public class FormatBenchmark
+{
+    @Param({"commits", "version", "all_stats", "all_gauges", "all_tablespaces", "all_users"})
+    public String kind;
+
+    @Param({"300"})
+    public int entities;
+
+    private SimpleResultSet rows;
+
+    @Setup(Level.Trial)
+    public void setup()
+            throws SQLException
+    {
+        Target target = StandInDatabase.create("format_" + kind, entities);
+        rows = StandInDatabase.rows(target, OracleMonitor.sql(kind));
+    }
+
+    @Benchmark
+    public String format()
+            throws SQLException
+    {
+        rows.beforeFirst();
+        return OracleMonitor.format(kind, rows);
+    }
+}
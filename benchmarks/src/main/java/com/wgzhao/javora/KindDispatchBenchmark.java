@@ -0,0 +1,68 @@
+package com.wgzhao.javora;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.sql.SQLException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * What the daemon does with an item key before and after the database: parsing the key, resolving it to a target
+ * and kind, and answering from the warm result cache, the internal kinds, or with an error for an unknown kind.
+ * No socket is involved, {@link ZabbixAgentServer#respond(String)} is called directly.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 3, time = 2)
+@Fork(1)
+public class KindDispatchBenchmark
+{
+    @Param({"agent.ping", "javora[check_active]", "javora[tablespace,TS_7]", "javora[all_stats]",
+            "javora[pool_stats]", "javora[nosuch]"})
+    public String key;
+
+    private ZabbixAgentServer server;
+
+    @Setup(Level.Trial)
+    public void setup()
+            throws SQLException, IOException
+    {
+        Target target = StandInDatabase.create("dispatch", 10);
+        Collector collector = new Collector(new ConnectionPools(1, ConnectionPools.DEFAULT_IDLE_TIMEOUT_MS), new ResultCache());
+        server = new ZabbixAgentServer(collector, target, new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 1);
+        String value = server.respond(key);
+        if (value.startsWith(ZabbixProtocol.NOT_SUPPORTED) != key.contains("nosuch")) {
+            throw new IllegalStateException(key + " answered " + value);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown()
+            throws IOException
+    {
+        // closes the collector too
+        server.close();
+    }
+
+    @Benchmark
+    public String respond()
+    {
+        return server.respond(key);
+    }
+}
@@ -0,0 +1,209 @@
+package com.wgzhao.javora;
+
+import org.h2.tools.SimpleResultSet;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+/**
+ * Creates the dictionary and dynamic performance views the monitor queries read, as plain tables
+ * filled with generated data, inside a {@link StandInDriver} database.
+ */
+public final class StandInDatabase
+{
+    private static final String[] SYSSTAT_NAMES = {"user commits", "user rollbacks", "enqueue deadlocks",
+            "redo writes", "table scans (long tables)", "table scan rows gotten", "index fast full scans (full)",
+            "bytes sent via SQL*Net to client", "bytes received via SQL*Net from client",
+            "SQL*Net roundtrips to/from client", "logons current", "session logical reads", "physical reads",
+            "physical reads direct", "physical reads direct (lob)", "sorts (memory)", "sorts (disk)",
+            "parse count (hard)", "parse count (total)"};
+
+    private static final String[] EVENT_NAMES = {"free buffer waits", "buffer busy waits",
+            "log file switch completion", "log file sync", "log file parallel write", "enqueue",
+            "db file sequential read", "db file scattered read", "db file single write", "db file parallel write",
+            "direct path read", "direct path write", "latch free"};
+
+    private StandInDatabase()
+    {
+    }
+
+    /**
+     * Create a stand-in database named {@code name} holding {@code entities} tablespaces, users, ASM diskgroups and
+     * sessions, and return the target to monitor it with. A name like {@code file:/tmp/db} creates it on disk.
+     */
+    public static Target create(String name, int entities)
+            throws SQLException
+    {
+        StandInDriver.register();
+        try (Connection connection = DriverManager.getConnection(StandInDriver.h2Url(name), "sa", "");
+                Statement statement = connection.createStatement()) {
+            statement.execute("drop all objects");
+            statement.execute("create table dba_tablespaces (tablespace_name varchar(30), contents varchar(21), " +
+                    "extent_management varchar(10), block_size number default 8192)");
+            // dbsize names the owner
+            statement.execute("create schema sys");
+            statement.execute("create view sys.dba_tablespaces as select * from public.dba_tablespaces");
+            statement.execute("create table dba_data_files (tablespace_name varchar(30), bytes number, maxbytes number)");
+            statement.execute("create table dba_free_space (tablespace_name varchar(30), bytes number)");
+            statement.execute("create table dba_segments (tablespace_name varchar(30), segment_name varchar(128), bytes number)");
+            statement.execute("create table dba_temp_free_space (tablespace_name varchar(30), tablespace_size number, " +
+                    "allocated_space number, free_space number)");
+            statement.execute("create table dba_users (username varchar(128), account_status varchar(32))");
+            statement.execute("create table v$asm_diskgroup_stat (name varchar(30), total_mb number, free_mb number)");
+            // dba_tablespace_usage_metrics derived from the tables above, sizes in 8k blocks
+            statement.execute("create view dba_tablespace_usage_metrics as select d.tablespace_name, " +
+                    "nvl(s.bytes, 0) / 8192 used_space, d.maxbytes / 8192 tablespace_size, " +
+                    "nvl(s.bytes, 0) * 100 / d.maxbytes used_percent " +
+                    "from (select tablespace_name, sum(greatest(bytes, maxbytes)) maxbytes from dba_data_files " +
+                    "group by tablespace_name) d left join (select tablespace_name, sum(bytes) bytes from dba_segments " +
+                    "group by tablespace_name) s on d.tablespace_name = s.tablespace_name");
+            statement.execute("create table v$sysstat (statistic# number, name varchar(64), value number)");
+            statement.execute("create table v$event_name (event# number, name varchar(64))");
+            statement.execute("create table v$system_event (event varchar(64), total_waits number, time_waited number)");
+
+            // the instance views read by the single value kinds, one session per entity and every third one active
+            statement.execute("create table v$instance (inst_id number, instance_name varchar(16), status varchar(12), " +
+                    "logins varchar(10), database_status varchar(17), startup_time date)");
+            statement.execute("insert into v$instance values (1, 'STANDIN', 'OPEN', 'ALLOWED', 'ACTIVE', sysdate - 3)");
+            statement.execute("create table v$version (banner varchar(80))");
+            statement.execute("insert into v$version values ('Oracle Database 11g Enterprise Edition Release 11.2.0.4.0 - 64bit Production')");
+            statement.execute("create table v$session (inst_id number, sid number, saddr varchar(16), username varchar(128), " +
+                    "status varchar(8))");
+            statement.execute("insert into v$session select 1, x, 'S' || x, case when x > 1 then 'USER_' || mod(x, " +
+                    Math.max(1, entities) + ") end, case when mod(x, 3) = 0 then 'ACTIVE' else 'INACTIVE' end " +
+                    "from system_range(1, " + Math.max(1, entities) + ")");
+            statement.execute("create view gv$session as select * from v$session");
+            statement.execute("create table gv$lock (inst_id number, sid number, block number)");
+            statement.execute("insert into gv$lock select 1, x, case when x = 1 then 1 else 0 end from system_range(1, 3)");
+            statement.execute("create table gv$transaction (inst_id number, ses_addr varchar(16), used_ublk number)");
+            statement.execute("insert into gv$transaction values (1, 'S3', 2560)");
+            statement.execute("create table v$log (group# number, sequence# number, archived varchar(3), status varchar(16))");
+            statement.execute("insert into v$log values (1, 41, 'YES', 'INACTIVE'), (2, 42, 'YES', 'ACTIVE'), (3, 43, 'NO', 'CURRENT')");
+            statement.execute("create table v$loghist (sequence# number)");
+            statement.execute("create table v$archived_log (sequence# number, applied varchar(9))");
+            statement.execute("create table v$recovery_file_dest (space_limit number, space_used number)");
+            statement.execute("insert into v$recovery_file_dest values (" + 64L * 1024 * 1024 * 1024 + ", " + 16L * 1024 * 1024 * 1024 + ")");
+
+            try (PreparedStatement sysstat = connection.prepareStatement("insert into v$sysstat values (?, ?, ?)");
+                    PreparedStatement eventName = connection.prepareStatement("insert into v$event_name values (?, ?)");
+                    PreparedStatement systemEvent = connection.prepareStatement("insert into v$system_event values (?, ?, ?)")) {
+                for (int i = 0; i < SYSSTAT_NAMES.length; i++) {
+                    sysstat.setInt(1, i);
+                    sysstat.setString(2, SYSSTAT_NAMES[i]);
+                    sysstat.setLong(3, 1000L * (i + 1) * (i + 7));
+                    sysstat.addBatch();
+                }
+                for (int i = 0; i < EVENT_NAMES.length; i++) {
+                    eventName.setInt(1, i);
+                    eventName.setString(2, EVENT_NAMES[i]);
+                    eventName.addBatch();
+                    systemEvent.setString(1, EVENT_NAMES[i]);
+                    systemEvent.setLong(2, 10L * (i + 1));
+                    systemEvent.setLong(3, 100L * (i + 1));
+                    systemEvent.addBatch();
+                }
+                sysstat.executeBatch();
+                eventName.executeBatch();
+                systemEvent.executeBatch();
+            }
+
+            try (PreparedStatement tablespace = connection.prepareStatement("insert into dba_tablespaces values (?, ?, 'LOCAL', 8192)");
+                    PreparedStatement dataFile = connection.prepareStatement("insert into dba_data_files values (?, ?, ?)");
+                    PreparedStatement freeSpace = connection.prepareStatement("insert into dba_free_space values (?, ?)");
+                    PreparedStatement segment = connection.prepareStatement("insert into dba_segments values (?, ?, ?)");
+                    PreparedStatement tempFree = connection.prepareStatement("insert into dba_temp_free_space values (?, ?, ?, ?)");
+                    PreparedStatement user = connection.prepareStatement("insert into dba_users values (?, ?)");
+                    PreparedStatement diskgroup = connection.prepareStatement("insert into v$asm_diskgroup_stat values (?, ?, ?)")) {
+                for (int i = 0; i < entities; i++) {
+                    String ts = tablespaceName(i);
+                    long size = (i + 1) * 64L * 1024 * 1024;
+                    tablespace.setString(1, ts);
+                    tablespace.setString(2, i % 10 == 9 ? "TEMPORARY" : "PERMANENT");
+                    tablespace.addBatch();
+                    dataFile.setString(1, ts);
+                    dataFile.setLong(2, size);
+                    dataFile.setLong(3, size * 2);
+                    dataFile.addBatch();
+                    freeSpace.setString(1, ts);
+                    freeSpace.setLong(2, size / (i % 7 + 2));
+                    freeSpace.addBatch();
+                    for (int s = 0; s < 4; s++) {
+                        segment.setString(1, ts);
+                        segment.setString(2, ts + "_SEG" + s);
+                        segment.setLong(3, size / 8);
+                        segment.addBatch();
+                    }
+                    tempFree.setString(1, ts);
+                    tempFree.setLong(2, size);
+                    tempFree.setLong(3, size);
+                    tempFree.setLong(4, size / 3);
+                    tempFree.addBatch();
+                    user.setString(1, userName(i));
+                    user.setString(2, i % 5 == 0 ? "LOCKED" : "OPEN");
+                    user.addBatch();
+                    diskgroup.setString(1, diskgroupName(i));
+                    diskgroup.setLong(2, 1024L * (i + 1));
+                    diskgroup.setLong(3, 1024L * (i + 1) / 4);
+                    diskgroup.addBatch();
+                }
+                tablespace.executeBatch();
+                dataFile.executeBatch();
+                freeSpace.executeBatch();
+                segment.executeBatch();
+                tempFree.executeBatch();
+                user.executeBatch();
+                diskgroup.executeBatch();
+            }
+        }
+        return new Target(StandInDriver.PREFIX + name, "sa", "");
+    }
+
+    /**
+     * The rows {@code sql} returns on the stand-in behind {@code target}, copied into memory so they can be read
+     * again without a round trip after {@link SimpleResultSet#beforeFirst()}.
+     */
+    public static SimpleResultSet rows(Target target, String sql)
+            throws SQLException
+    {
+        try (Connection connection = DriverManager.getConnection(target.getUrl(), target.getUsername(), target.getPassword());
+                Statement statement = connection.createStatement();
+                ResultSet resultSet = statement.executeQuery(sql)) {
+            ResultSetMetaData metaData = resultSet.getMetaData();
+            int columns = metaData.getColumnCount();
+            SimpleResultSet rows = new SimpleResultSet();
+            rows.setAutoClose(false);
+            for (int i = 1; i <= columns; i++) {
+                rows.addColumn(metaData.getColumnLabel(i), metaData.getColumnType(i), metaData.getPrecision(i),
+                        metaData.getScale(i));
+            }
+            while (resultSet.next()) {
+                Object[] row = new Object[columns];
+                for (int i = 1; i <= columns; i++) {
+                    row[i - 1] = resultSet.getObject(i);
+                }
+                rows.addRow(row);
+            }
+            return rows;
+        }
+    }
+
+    public static String tablespaceName(int i)
+    {
+        return "TS_" + i;
+    }
+
+    public static String userName(int i)
+    {
+        return "USER_" + i;
+    }
+
+    public static String diskgroupName(int i)
+    {
+        return "DG_" + i;
+    }
+}
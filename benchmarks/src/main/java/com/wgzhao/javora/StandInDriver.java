@@ -0,0 +1,188 @@
+package com.wgzhao.javora;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.Driver;
+import java.sql.DriverManager;
+import java.sql.DriverPropertyInfo;
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.sql.Statement;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
+
+/**
+ * JDBC driver for {@code jdbc:standin:<name>} urls, backed by an H2 database in Oracle mode.
+ * <p>
+ * Statement texts go through {@link #rewrite(String)} so the few Oracle-only constructs used by the monitor
+ * queries run on H2, and every text sent to the database is counted: a parse call is any text handed to
+ * {@code prepareStatement} or {@code Statement.execute*}, a hard parse is a text not seen since the last
+ * {@link #resetCounters()}, the way a statement missing from the shared pool would be. Missing tables are
+ * reported as ORA-00942 so fallbacks keyed on Oracle error codes behave as they would against Oracle.
+ */
+public class StandInDriver
+        implements Driver
+{
+    static final String PREFIX = "jdbc:standin:";
+
+    // H2 table or view not found, and the Oracle error code it stands for
+    private static final int H2_TABLE_NOT_FOUND = 42102;
+    private static final int ORA_TABLE_OR_VIEW_DOES_NOT_EXIST = 942;
+
+    private static final AtomicLong parseCalls = new AtomicLong();
+    private static final AtomicLong hardParses = new AtomicLong();
+    private static final Map<String, Boolean> sharedPool = new ConcurrentHashMap<>();
+
+    static {
+        try {
+            DriverManager.registerDriver(new StandInDriver());
+        }
+        catch (SQLException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    static void register()
+    {
+        // registration happens in the static initializer
+    }
+
+    /**
+     * The H2 url behind {@code jdbc:standin:<name>}: an in-memory database living as long as the JVM, or with a
+     * name like {@code file:/tmp/db} a database on disk, closed with its last connection so another process can
+     * open it.
+     */
+    static String h2Url(String name)
+    {
+        String database = name.startsWith("file:") ? name : "mem:" + name + ";DB_CLOSE_DELAY=-1";
+        return "jdbc:h2:" + database + ";MODE=Oracle;NON_KEYWORDS=VALUE";
+    }
+
+    public static long parseCalls()
+    {
+        return parseCalls.get();
+    }
+
+    public static long hardParses()
+    {
+        return hardParses.get();
+    }
+
+    public static void resetCounters()
+    {
+        parseCalls.set(0);
+        hardParses.set(0);
+        sharedPool.clear();
+    }
+
+    static String rewrite(String sql)
+    {
+        // H2 has no (+) outer joins; the stand-in views hold a row for every name, so an inner join is the same.
+        // Subtracting dates gives an interval instead of days.
+        return sql.replace("(+)", "")
+                .replace("(sysdate-startup_time)*86400", "datediff('SECOND', startup_time, sysdate)");
+    }
+
+    private static String parse(String sql)
+    {
+        parseCalls.incrementAndGet();
+        if (sharedPool.putIfAbsent(sql, Boolean.TRUE) == null) {
+            hardParses.incrementAndGet();
+        }
+        return rewrite(sql);
+    }
+
+    @Override
+    public Connection connect(String url, Properties info)
+            throws SQLException
+    {
+        if (!acceptsURL(url)) {
+            return null;
+        }
+        Connection connection = DriverManager.getConnection(h2Url(url.substring(PREFIX.length())), info);
+        return (Connection) Proxy.newProxyInstance(StandInDriver.class.getClassLoader(),
+                new Class<?>[] {Connection.class}, new Counting(connection));
+    }
+
+    @Override
+    public boolean acceptsURL(String url)
+    {
+        return url != null && url.startsWith(PREFIX);
+    }
+
+    @Override
+    public DriverPropertyInfo[] getPropertyInfo(String url, Properties info)
+    {
+        return new DriverPropertyInfo[0];
+    }
+
+    @Override
+    public int getMajorVersion()
+    {
+        return 1;
+    }
+
+    @Override
+    public int getMinorVersion()
+    {
+        return 0;
+    }
+
+    @Override
+    public boolean jdbcCompliant()
+    {
+        return false;
+    }
+
+    @Override
+    public Logger getParentLogger()
+            throws SQLFeatureNotSupportedException
+    {
+        throw new SQLFeatureNotSupportedException();
+    }
+
+    private static class Counting
+            implements InvocationHandler
+    {
+        private final Object delegate;
+
+        Counting(Object delegate)
+        {
+            this.delegate = delegate;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args)
+                throws Throwable
+        {
+            String name = method.getName();
+            if (args != null && args.length > 0 && args[0] instanceof String
+                    && (name.equals("prepareStatement") || name.startsWith("execute"))) {
+                args[0] = parse((String) args[0]);
+            }
+            Object result;
+            try {
+                result = method.invoke(delegate, args);
+            }
+            catch (InvocationTargetException e) {
+                Throwable cause = e.getCause();
+                if (cause instanceof SQLException && ((SQLException) cause).getErrorCode() == H2_TABLE_NOT_FOUND) {
+                    throw new SQLException("ORA-00942: table or view does not exist", "42000",
+                            ORA_TABLE_OR_VIEW_DOES_NOT_EXIST, cause);
+                }
+                throw cause;
+            }
+            if (name.equals("createStatement") && result instanceof Statement) {
+                return Proxy.newProxyInstance(StandInDriver.class.getClassLoader(),
+                        new Class<?>[] {Statement.class}, new Counting(result));
+            }
+            return result;
+        }
+    }
+}
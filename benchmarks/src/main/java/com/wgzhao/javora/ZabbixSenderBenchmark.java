@@ -0,0 +1,88 @@
+package com.wgzhao.javora;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Values pushed per second through {@link ZabbixSender} into a {@link CountingTrapper}, per batch size. An operation
+ * queues {@value #VALUES} samples and waits until the trapper has all of them; the trial fails if the trapper saw a
+ * malformed request, lost a value, or received a batch larger than the configured size.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 3, time = 2)
+@Fork(1)
+public class ZabbixSenderBenchmark
+{
+    private static final int VALUES = 1000;
+
+    @Param({"1", "50", "250"})
+    public int batchSize;
+
+    private CountingTrapper trapper;
+    private ZabbixSender sender;
+    private long offered;
+
+    @Setup(Level.Trial)
+    public void setup()
+            throws IOException
+    {
+        trapper = new CountingTrapper();
+        sender = new ZabbixSender(trapper.getAddress(), batchSize, 50, VALUES * 2);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown()
+            throws IOException
+    {
+        sender.close();
+        trapper.close();
+        if (!trapper.getErrors().isEmpty()) {
+            throw new IllegalStateException("trapper saw protocol errors: " + trapper.getErrors());
+        }
+        if (trapper.getValues() != offered || sender.getDropped() != 0) {
+            throw new IllegalStateException("offered " + offered + " values, trapper got " + trapper.getValues()
+                    + ", sender dropped " + sender.getDropped());
+        }
+        for (int size : trapper.getBatchSizes()) {
+            if (size > batchSize) {
+                throw new IllegalStateException("batch of " + size + " values exceeds batch size " + batchSize);
+            }
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(VALUES)
+    public long push()
+            throws InterruptedException
+    {
+        long now = System.currentTimeMillis();
+        for (int i = 0; i < VALUES; i++) {
+            while (!sender.offer(Sample.of("db" + (i % 16), "javora[commits]", Long.toString(offered + i), now))) {
+                Thread.sleep(1);
+            }
+        }
+        offered += VALUES;
+        while (trapper.getValues() < offered) {
+            Thread.sleep(0, 100_000);
+        }
+        return trapper.getRequests();
+    }
+}
@@ -0,0 +1,261 @@
+package com.wgzhao.javora;
+
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Reads {@code gv$active_session_history} incrementally and keeps, per target, the number of samples of each
+ * SQL_ID, wait event and session for every minute of the last hour.
+ * <p>
+ * Every poll remembers the newest sample seen per instance, so the next one fetches only the rows sampled since,
+ * whatever the poll interval. An instance whose samples are newer but whose {@code sample_id} went down was
+ * restarted and is followed from its new {@code sample_id}s on. The rows are fetched in large batches and counted
+ * as they are read, never held in memory. The first poll of a target, and of an instance joining later, reads the
+ * last {@link #BACKFILL_SECONDS} seconds only.
+ * <p>
+ * Reading ASH requires the Diagnostics Pack.
+ */
+public class ActiveSessionHistory
+{
+    // samples per SQL_ID, event and session of the last minutes, as JSON
+    static final String KIND = "ash_top";
+
+    static final int FETCH_SIZE = 1000;
+    static final int MAX_MINUTES = 60;
+    static final int BACKFILL_SECONDS = 60;
+
+    // entries per dimension and minute, further keys are counted as OTHER
+    private static final int MAX_KEYS = 500;
+    private static final int TOP = 10;
+    private static final String OTHER = "OTHER";
+
+    private static final String SELECT = "select inst_id, sample_id, sample_time, " +
+            "session_id, session_serial#, session_state, sql_id, event from gv$active_session_history ";
+    private static final String ORDER = " order by inst_id, sample_id";
+    private static final String RECENT = "sample_time > systimestamp - numtodsinterval(?, 'SECOND')";
+
+    private final Collector collector;
+    private final Map<Target, Stream> streams = new ConcurrentHashMap<>();
+
+    public ActiveSessionHistory(Collector collector)
+    {
+        this.collector = collector;
+    }
+
+    /**
+     * Fetch the samples taken since the last call and return the top SQL_IDs, events and sessions of the last
+     * {@code param[0]} complete minutes, 1 by default.
+     */
+    public String collect(Target target, String... param)
+            throws SQLException
+    {
+        int minutes = param.length > 0 && !param[0].isEmpty() ? Integer.parseInt(param[0]) : 1;
+        if (minutes < 1 || minutes > MAX_MINUTES) {
+            throw new IllegalArgumentException("minutes must be 1 to " + MAX_MINUTES);
+        }
+        Stream stream = streams.computeIfAbsent(target, t -> new Stream());
+        // one poll at a time per target, the watermarks move forward only
+        synchronized (stream) {
+            collector.run(target, stream::poll);
+            return stream.top(minutes).toJSONString();
+        }
+    }
+
+    private static final class Stream
+    {
+        final Map<Integer, Watermark> watermarks = new HashMap<>();
+        final TreeMap<Long, Minute> minutes = new TreeMap<>();
+        // the newest sample read per instance by the running poll
+        final Map<Integer, Watermark> seen = new HashMap<>();
+
+        // the watermarks move when the poll ends, all rows of a sample share its sample_id; a poll failing halfway
+        // through a sample misses the rest of that sample rather than counting the rest of the poll twice
+        Void poll(PooledConnection connection)
+                throws SQLException
+        {
+            Timings timings = connection.getPool().timings(KIND);
+            long start = System.nanoTime();
+            seen.clear();
+            try {
+                PreparedStatement statement = connection.prepare(sql(watermarks.size()));
+                int index = 1;
+                List<Integer> instances = new ArrayList<>(watermarks.keySet());
+                for (Integer instance : instances) {
+                    Watermark watermark = watermarks.get(instance);
+                    statement.setInt(index++, instance);
+                    statement.setLong(index++, watermark.sampleId);
+                    statement.setTimestamp(index++, watermark.sampleTime);
+                }
+                for (Integer instance : instances) {
+                    statement.setInt(index++, instance);
+                }
+                statement.setInt(index, BACKFILL_SECONDS);
+                statement.setFetchSize(FETCH_SIZE);
+                try (ResultSet resultSet = statement.executeQuery()) {
+                    long executed = System.nanoTime();
+                    timings.getExecute().record(executed - start);
+                    while (resultSet.next()) {
+                        add(resultSet);
+                    }
+                    timings.getFetch().record(System.nanoTime() - executed);
+                }
+            }
+            catch (SQLException | RuntimeException e) {
+                timings.error();
+                throw e;
+            }
+            finally {
+                watermarks.putAll(seen);
+            }
+            while (minutes.size() > MAX_MINUTES + 1) {
+                minutes.pollFirstEntry();
+            }
+            return null;
+        }
+
+        // (inst_id = ? and (sample_id > ? or sample_time > ?)) or ... for the known instances, the newer sample time
+        // catching a restart, then recent rows of other instances, so an idle instance does not make the busy ones
+        // fetch their rows again
+        private static String sql(int instances)
+        {
+            StringBuilder sql = new StringBuilder(SELECT).append("where ");
+            for (int i = 0; i < instances; i++) {
+                sql.append("(inst_id = ? and (sample_id > ? or sample_time > ?)) or ");
+            }
+            if (instances > 0) {
+                sql.append("(inst_id not in (");
+                for (int i = 0; i < instances; i++) {
+                    sql.append(i == 0 ? "?" : ", ?");
+                }
+                sql.append(") and ").append(RECENT).append(")");
+            }
+            else {
+                sql.append(RECENT);
+            }
+            return sql.append(ORDER).toString();
+        }
+
+        private void add(ResultSet row)
+                throws SQLException
+        {
+            int instance = row.getInt(1);
+            long sampleId = row.getLong(2);
+            Timestamp sampleTime = row.getTimestamp(3);
+            Watermark watermark = watermarks.get(instance);
+            // a lower sample_id with a newer time is a restarted instance, not a sample counted before
+            if (watermark != null && sampleId <= watermark.sampleId && !sampleTime.after(watermark.sampleTime)) {
+                return;
+            }
+            Watermark newest = seen.get(instance);
+            if (newest == null || sampleTime.after(newest.sampleTime)
+                    || (sampleTime.equals(newest.sampleTime) && sampleId > newest.sampleId)) {
+                seen.put(instance, new Watermark(sampleId, sampleTime));
+            }
+
+            long minute = TimeUnit.MILLISECONDS.toMinutes(sampleTime.getTime());
+            Minute counts = minutes.computeIfAbsent(minute, m -> new Minute());
+            counts.samples++;
+            count(counts.sessions, instance + "," + row.getLong(4) + "," + row.getLong(5));
+            String sqlId = row.getString(7);
+            if (sqlId != null) {
+                count(counts.sql, sqlId);
+            }
+            String event = "ON CPU".equals(row.getString(6)) ? "ON CPU" : row.getString(8);
+            if (event != null) {
+                count(counts.events, event);
+            }
+        }
+
+        private static void count(Map<String, int[]> counts, String key)
+        {
+            int[] count = counts.get(key);
+            if (count == null) {
+                count = counts.computeIfAbsent(counts.size() < MAX_KEYS ? key : OTHER, k -> new int[1]);
+            }
+            count[0]++;
+        }
+
+        // the minute of the newest sample is still being sampled and left out
+        @SuppressWarnings("unchecked")
+        JSONObject top(int count)
+        {
+            JSONObject object = new JSONObject();
+            if (minutes.isEmpty()) {
+                object.put("samples", 0);
+                return object;
+            }
+            long to = minutes.lastKey();
+            long from = to - count;
+            Minute total = new Minute();
+            for (Minute minute : minutes.subMap(from, true, to, false).values()) {
+                total.samples += minute.samples;
+                merge(total.sql, minute.sql);
+                merge(total.events, minute.events);
+                merge(total.sessions, minute.sessions);
+            }
+            object.put("from", TimeUnit.MINUTES.toSeconds(from));
+            object.put("to", TimeUnit.MINUTES.toSeconds(to));
+            object.put("samples", total.samples);
+            // ASH samples active sessions every second
+            object.put("aas", Math.round(total.samples * 100.0 / TimeUnit.MINUTES.toSeconds(count)) / 100.0);
+            object.put("sql", top(total.sql, "sql_id"));
+            object.put("events", top(total.events, "event"));
+            object.put("sessions", top(total.sessions, "session"));
+            return object;
+        }
+
+        private static void merge(Map<String, int[]> into, Map<String, int[]> counts)
+        {
+            for (Map.Entry<String, int[]> entry : counts.entrySet()) {
+                into.computeIfAbsent(entry.getKey(), k -> new int[1])[0] += entry.getValue()[0];
+            }
+        }
+
+        @SuppressWarnings("unchecked")
+        private static JSONArray top(Map<String, int[]> counts, String name)
+        {
+            List<Map.Entry<String, int[]>> entries = new ArrayList<>(counts.entrySet());
+            entries.sort((a, b) -> Integer.compare(b.getValue()[0], a.getValue()[0]));
+            JSONArray array = new JSONArray();
+            for (Map.Entry<String, int[]> entry : entries.subList(0, Math.min(TOP, entries.size()))) {
+                JSONObject item = new JSONObject();
+                item.put(name, entry.getKey());
+                item.put("samples", entry.getValue()[0]);
+                array.add(item);
+            }
+            return array;
+        }
+    }
+
+    private static final class Watermark
+    {
+        final long sampleId;
+        final Timestamp sampleTime;
+
+        Watermark(long sampleId, Timestamp sampleTime)
+        {
+            this.sampleId = sampleId;
+            this.sampleTime = sampleTime;
+        }
+    }
+
+    private static final class Minute
+    {
+        int samples;
+        final Map<String, int[]> sql = new HashMap<>();
+        final Map<String, int[]> events = new HashMap<>();
+        final Map<String, int[]> sessions = new HashMap<>();
+    }
+}
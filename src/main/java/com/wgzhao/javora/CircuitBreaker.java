@@ -0,0 +1,154 @@
+package com.wgzhao.javora;
+
+import java.sql.SQLException;
+import java.sql.SQLNonTransientConnectionException;
+import java.sql.SQLRecoverableException;
+import java.sql.SQLTimeoutException;
+import java.sql.SQLTransientConnectionException;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Fails fast on a target that stopped answering.
+ * <p>
+ * After {@code threshold} consecutive failures that mean the database is unreachable or hanging (connect errors,
+ * timeouts, a lost session, an instance going down) the breaker opens and requests are refused without touching
+ * the database. Once the cool-down passed one request is let through as a probe; the collector runs
+ * {@code check_active} first and closes the breaker only if the instance is open again, otherwise the breaker stays
+ * open for another cool-down. Errors of the statement itself, such as a missing view, do not count, and neither
+ * does a request that never reached the database because its connection pool was exhausted.
+ */
+public class CircuitBreaker
+{
+    public static final int DEFAULT_THRESHOLD = 3;
+    public static final long DEFAULT_COOLDOWN_MS = 60_000;
+
+    // ORA- and driver error codes meaning the session or instance is gone, or the statement was cancelled
+    private static final List<Integer> unavailableCodes = Arrays.asList(
+            1012, // not logged on
+            1013, // user requested cancel of current operation (query timeout)
+            1033, // ORACLE initialization or shutdown in progress
+            1034, // ORACLE not available
+            1089, // immediate shutdown in progress
+            1090, // shutdown in progress
+            3113, // end-of-file on communication channel
+            3114, // not connected to ORACLE
+            3135, // connection lost contact
+            17002, // IO error
+            17008, // closed connection
+            17410 // no more data to read from socket
+    );
+
+    public enum Decision
+    {
+        ALLOW, PROBE, REJECT
+    }
+
+    enum State
+    {
+        CLOSED, OPEN, HALF_OPEN
+    }
+
+    private final int threshold;
+    private final long cooldownMs;
+
+    private State state = State.CLOSED;
+    private int failures;
+    private long openUntil;
+
+    public CircuitBreaker(int threshold, long cooldownMs)
+    {
+        this.threshold = threshold;
+        this.cooldownMs = cooldownMs;
+    }
+
+    /**
+     * Whether an error says the target is unavailable, rather than that the statement is wrong.
+     */
+    public static boolean isUnavailable(SQLException e)
+    {
+        if (e instanceof PoolExhaustedException) {
+            return false;
+        }
+        if (e instanceof SQLTimeoutException || e instanceof SQLRecoverableException
+                || e instanceof SQLTransientConnectionException || e instanceof SQLNonTransientConnectionException) {
+            return true;
+        }
+        String state = e.getSQLState();
+        if (state != null && state.startsWith("08")) {
+            return true;
+        }
+        int code = e.getErrorCode();
+        // TNS errors: listener, service name, connect timeouts
+        return unavailableCodes.contains(code) || (code >= 12500 && code < 12700);
+    }
+
+    /**
+     * Decide what to do with a request: run it, run it after a probe, or refuse it.
+     */
+    public synchronized Decision acquire()
+    {
+        switch (state) {
+            case CLOSED:
+                return Decision.ALLOW;
+            case OPEN:
+                if (System.currentTimeMillis() >= openUntil) {
+                    state = State.HALF_OPEN;
+                    return Decision.PROBE;
+                }
+                return Decision.REJECT;
+            default:
+                // a probe is already running
+                return Decision.REJECT;
+        }
+    }
+
+    public synchronized void success()
+    {
+        state = State.CLOSED;
+        failures = 0;
+    }
+
+    /**
+     * The request did not reach the database: the failures so far stand, and a probe that could not run leaves
+     * the next request to probe.
+     */
+    public synchronized void skipped()
+    {
+        if (state == State.HALF_OPEN) {
+            state = State.OPEN;
+        }
+    }
+
+    public synchronized void failure()
+    {
+        failures++;
+        if (state == State.HALF_OPEN || failures >= threshold) {
+            open();
+        }
+    }
+
+    private void open()
+    {
+        state = State.OPEN;
+        openUntil = System.currentTimeMillis() + cooldownMs;
+    }
+
+    synchronized State getState()
+    {
+        return state;
+    }
+
+    /**
+     * Milliseconds until the next probe is allowed, 0 if the breaker is not open.
+     */
+    public synchronized long getRetryInMs()
+    {
+        return state == State.OPEN ? Math.max(0, openUntil - System.currentTimeMillis()) : 0;
+    }
+
+    public synchronized int getFailures()
+    {
+        return failures;
+    }
+}
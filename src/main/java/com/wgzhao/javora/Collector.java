@@ -0,0 +1,275 @@
+package com.wgzhao.javora;
+
+import java.io.Closeable;
+import java.sql.SQLException;
+import java.sql.SQLTransientConnectionException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Runs checks against targets through pooled connections. This is the entry point shared by the
+ * command line and the daemon; it also answers the kinds describing javora itself, such as {@code pool_stats}.
+ * <p>
+ * With a {@link ResultCache} identical requests arriving within a kind's time to live, or while the same
+ * query is still running, are answered without another round trip to the database. A {@link CircuitBreaker}
+ * per target refuses requests right away while the target is known to be down.
+ */
+public class Collector
+        implements Closeable
+{
+    // JSON statistics of the connection pool of the target
+    static final String POOL_STATS = "pool_stats";
+    // requests answered from the result cache
+    static final String CACHE_HITS = "cache_hits";
+    // requests that had to query the database
+    static final String CACHE_MISSES = "cache_misses";
+    // requests that waited for an identical query already running
+    static final String CACHE_COALESCED = "cache_coalesced";
+    // JSON timings of logons and of every kind run on the target
+    static final String INTERNAL_TIMINGS = "javora_internal_timings";
+    // statements and logons that failed on the target
+    static final String INTERNAL_ERRORS = "javora_internal_errors";
+
+    // per second increase of a counter kind between the two latest samples
+    static final String RATE = "rate";
+    // increase of a counter kind between the two latest samples
+    static final String DELTA = "delta";
+    // lowest, highest and average per second increase of a counter kind over the last minutes
+    static final String RATE_MIN = "rate_min";
+    static final String RATE_MAX = "rate_max";
+    static final String RATE_AVG = "rate_avg";
+
+    private static final List<String> internalKinds = Arrays.asList(POOL_STATS, CACHE_HITS, CACHE_MISSES, CACHE_COALESCED,
+            INTERNAL_TIMINGS, INTERNAL_ERRORS);
+
+    private static final String PROBE_KIND = "check_active";
+
+    private final ConnectionPools pools;
+    private final ResultCache cache;
+    private final int breakerThreshold;
+    private final long breakerCooldownMs;
+    private final Map<Target, CircuitBreaker> breakers = new ConcurrentHashMap<>();
+    private final CounterHistory history;
+    private final ActiveSessionHistory ash;
+
+    public Collector(ConnectionPools pools)
+    {
+        this(pools, null);
+    }
+
+    public Collector(ConnectionPools pools, ResultCache cache)
+    {
+        this(pools, cache, CircuitBreaker.DEFAULT_THRESHOLD, CircuitBreaker.DEFAULT_COOLDOWN_MS);
+    }
+
+    /**
+     * @param breakerThreshold consecutive failures after which a target is considered unavailable, 0 to never
+     * stop asking
+     */
+    public Collector(ConnectionPools pools, ResultCache cache, int breakerThreshold, long breakerCooldownMs)
+    {
+        this(pools, cache, breakerThreshold, breakerCooldownMs, 0);
+    }
+
+    /**
+     * @param historyResolutionMs how often the counters of targets asked for rates are sampled, 0 to answer no
+     * rates nor {@code ash_top}; only meaningful for a collector living longer than a few samples
+     */
+    public Collector(ConnectionPools pools, ResultCache cache, int breakerThreshold, long breakerCooldownMs,
+            long historyResolutionMs)
+    {
+        this.pools = pools;
+        this.cache = cache;
+        this.breakerThreshold = breakerThreshold;
+        this.breakerCooldownMs = breakerCooldownMs;
+        this.history = historyResolutionMs > 0 ? new CounterHistory(this::query, historyResolutionMs) : null;
+        this.ash = historyResolutionMs > 0 ? new ActiveSessionHistory(this) : null;
+    }
+
+    /**
+     * Whether {@code kind} is a check this collector can answer.
+     */
+    public static boolean isKind(String kind)
+    {
+        return OracleMonitor.isSupported(kind) || internalKinds.contains(kind) || CounterHistory.derivedKinds().contains(kind)
+                || ActiveSessionHistory.KIND.equals(kind);
+    }
+
+    /**
+     * Whether {@code kind} cannot run without an argument.
+     */
+    public static boolean needParam(String kind)
+    {
+        return OracleMonitor.needParam(kind) || CounterHistory.derivedKinds().contains(kind);
+    }
+
+    public String collect(Target target, String kind, String... param)
+            throws SQLException
+    {
+        if (internalKinds.contains(kind)) {
+            return internal(target, kind);
+        }
+        if (CounterHistory.derivedKinds().contains(kind)) {
+            if (history == null) {
+                throw new IllegalArgumentException("the kind " + kind + " is only available in a long-running mode");
+            }
+            return history.collect(target, kind, param);
+        }
+        if (ActiveSessionHistory.KIND.equals(kind)) {
+            if (ash == null) {
+                throw new IllegalArgumentException("the kind " + kind + " is only available in a long-running mode");
+            }
+            return ash.collect(target, param);
+        }
+        if (cache == null) {
+            return query(target, kind, param);
+        }
+        return cache.get(target, kind, param, () -> query(target, kind, param));
+    }
+
+    private String internal(Target target, String kind)
+    {
+        switch (kind) {
+            case POOL_STATS:
+                return pools.get(target).stats().toJSONString();
+            case CACHE_HITS:
+                return String.valueOf(cache == null ? 0 : cache.getHits());
+            case CACHE_MISSES:
+                return String.valueOf(cache == null ? 0 : cache.getMisses());
+            case CACHE_COALESCED:
+                return String.valueOf(cache == null ? 0 : cache.getCoalesced());
+            case INTERNAL_TIMINGS:
+                return pools.get(target).timingsJson().toJSONString();
+            case INTERNAL_ERRORS:
+                ConnectionPool pool = pools.get(target);
+                return String.valueOf(pool.getConnectErrors()
+                        + pool.getTimings().values().stream().mapToLong(Timings::getErrors).sum());
+            default:
+                throw new IllegalArgumentException("no such kind: " + kind);
+        }
+    }
+
+    private String query(Target target, String kind, String... param)
+            throws SQLException
+    {
+        return run(target, connection -> OracleMonitor.query(connection, kind, param));
+    }
+
+    ConnectionPool pool(Target target)
+    {
+        return pools.get(target);
+    }
+
+    /**
+     * Account {@code nanos} spent handing the value of {@code kind} over, e.g. writing the response to Zabbix, if
+     * {@code kind} runs on the database.
+     */
+    public void recordOutput(Target target, String kind, long nanos)
+    {
+        // derived and internal kinds never reach the database, nor do unknown ones
+        if (!OracleMonitor.isSupported(kind) && !ActiveSessionHistory.KIND.equals(kind)) {
+            return;
+        }
+        pools.get(target).timings(kind).getOutput().record(nanos);
+    }
+
+    /**
+     * Work done on a pooled connection of a target.
+     */
+    public interface Work<T>
+    {
+        T run(PooledConnection connection)
+                throws SQLException;
+    }
+
+    /**
+     * Do {@code work} on a pooled connection of {@code target}, unless its circuit breaker says it is unavailable.
+     */
+    public <T> T run(Target target, Work<T> work)
+            throws SQLException
+    {
+        if (breakerThreshold <= 0) {
+            return execute(target, work);
+        }
+        CircuitBreaker breaker = breakers.computeIfAbsent(target, t -> new CircuitBreaker(breakerThreshold, breakerCooldownMs));
+        switch (breaker.acquire()) {
+            case REJECT:
+                throw new SQLTransientConnectionException(target + " unavailable after " + breaker.getFailures()
+                        + " failures, next try in " + (breaker.getRetryInMs() + 999) / 1000 + "s");
+            case PROBE:
+                probe(target, breaker);
+                break;
+            default:
+                break;
+        }
+        try {
+            T result = execute(target, work);
+            breaker.success();
+            return result;
+        }
+        catch (PoolExhaustedException e) {
+            // the database was not asked
+            breaker.skipped();
+            throw e;
+        }
+        catch (SQLException e) {
+            if (CircuitBreaker.isUnavailable(e)) {
+                breaker.failure();
+            }
+            else {
+                // the database answered, just not the way the statement wanted
+                breaker.success();
+            }
+            throw e;
+        }
+    }
+
+    // the target may take requests again only once the instance is open
+    private void probe(Target target, CircuitBreaker breaker)
+            throws SQLException
+    {
+        String active;
+        try {
+            active = execute(target, connection -> OracleMonitor.query(connection, PROBE_KIND));
+        }
+        catch (PoolExhaustedException e) {
+            breaker.skipped();
+            throw e;
+        }
+        catch (SQLException | RuntimeException e) {
+            breaker.failure();
+            throw e;
+        }
+        if (!"1".equals(active.trim())) {
+            breaker.failure();
+            throw new SQLTransientConnectionException(target + " unavailable, instance is not open");
+        }
+        breaker.success();
+    }
+
+    private <T> T execute(Target target, Work<T> work)
+            throws SQLException
+    {
+        PooledConnection connection = pools.borrow(target);
+        boolean failed = true;
+        try {
+            T result = work.run(connection);
+            failed = false;
+            return result;
+        }
+        finally {
+            connection.getPool().release(connection, failed);
+        }
+    }
+
+    @Override
+    public void close()
+    {
+        if (history != null) {
+            history.close();
+        }
+        pools.close();
+    }
+}
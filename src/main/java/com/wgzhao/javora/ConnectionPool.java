@@ -0,0 +1,352 @@
+package com.wgzhao.javora;
+
+import org.json.simple.JSONObject;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A bounded pool of connections to one {@link Target}.
+ * <p>
+ * Idle connections are kept most-recently-used first, so a lightly loaded pool keeps reusing the same
+ * few sessions and the others age out through {@link #evictIdle()}. A connection idle for longer than
+ * the validation interval is checked with {@link Connection#isValid(int)} before it is handed out again.
+ */
+public class ConnectionPool
+{
+    private static final int VALIDATION_TIMEOUT_SECONDS = 5;
+
+    // Oracle thin driver connection properties, in milliseconds
+    static final String CONNECT_TIMEOUT_PROPERTY = "oracle.net.CONNECT_TIMEOUT";
+    static final String READ_TIMEOUT_PROPERTY = "oracle.jdbc.ReadTimeout";
+
+    private final Target target;
+    private final int maxSize;
+    private final long idleTimeoutMs;
+    private final long validationIntervalMs;
+    private final long borrowTimeoutMs;
+    private final int statementCacheSize;
+    private final int connectTimeoutSeconds;
+    private final int queryTimeoutSeconds;
+
+    private final Semaphore permits;
+    private final ConcurrentLinkedDeque<PooledConnection> idle = new ConcurrentLinkedDeque<>();
+    private volatile boolean shutDown;
+
+    // kinds whose primary statement the target can not run, see OracleMonitor#query
+    private final Set<String> fallbackKinds = ConcurrentHashMap.newKeySet();
+
+    private final AtomicLong borrowed = new AtomicLong();
+    private final AtomicLong created = new AtomicLong();
+    private final AtomicLong closed = new AtomicLong();
+    private final AtomicLong borrowTimeouts = new AtomicLong();
+    private final AtomicLong validationFailures = new AtomicLong();
+    private final AtomicLong waitNanosTotal = new AtomicLong();
+    private final AtomicLong waitNanosMax = new AtomicLong();
+    private final AtomicLong statementCacheHits = new AtomicLong();
+    private final AtomicLong statementCacheMisses = new AtomicLong();
+
+    private final LatencyHistogram connectTime = new LatencyHistogram();
+    private final AtomicLong connectErrors = new AtomicLong();
+    private final Map<String, Timings> timings = new ConcurrentHashMap<>();
+
+    public ConnectionPool(Target target, int maxSize, long idleTimeoutMs, long validationIntervalMs,
+            long borrowTimeoutMs, int statementCacheSize)
+    {
+        this(target, maxSize, idleTimeoutMs, validationIntervalMs, borrowTimeoutMs, statementCacheSize, 0, 0);
+    }
+
+    /**
+     * @param connectTimeoutSeconds limit for opening a connection, 0 for none
+     * @param queryTimeoutSeconds limit for running a statement, 0 for none
+     */
+    public ConnectionPool(Target target, int maxSize, long idleTimeoutMs, long validationIntervalMs,
+            long borrowTimeoutMs, int statementCacheSize, int connectTimeoutSeconds, int queryTimeoutSeconds)
+    {
+        this.connectTimeoutSeconds = connectTimeoutSeconds;
+        this.queryTimeoutSeconds = queryTimeoutSeconds;
+        this.target = target;
+        this.maxSize = maxSize;
+        this.idleTimeoutMs = idleTimeoutMs;
+        this.validationIntervalMs = validationIntervalMs;
+        this.borrowTimeoutMs = borrowTimeoutMs;
+        this.statementCacheSize = statementCacheSize;
+        this.permits = new Semaphore(maxSize, true);
+    }
+
+    public Target getTarget()
+    {
+        return target;
+    }
+
+    /**
+     * Take a connection out of the pool, opening a new one when no idle connection is left.
+     * Every successful borrow must be paired with {@link #release(PooledConnection, boolean)}.
+     */
+    public PooledConnection borrow()
+            throws SQLException
+    {
+        long start = System.nanoTime();
+        try {
+            if (!permits.tryAcquire(borrowTimeoutMs, TimeUnit.MILLISECONDS)) {
+                borrowTimeouts.incrementAndGet();
+                throw new PoolExhaustedException("timed out after " + borrowTimeoutMs + "ms waiting for a connection to " + target);
+            }
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("interrupted while waiting for a connection to " + target, e);
+        }
+        recordWait(System.nanoTime() - start);
+
+        try {
+            PooledConnection connection;
+            while ((connection = idle.pollFirst()) != null) {
+                if (System.currentTimeMillis() - connection.getLastUsed() < validationIntervalMs || isValid(connection)) {
+                    break;
+                }
+                validationFailures.incrementAndGet();
+                discard(connection);
+            }
+            if (connection == null) {
+                connection = open();
+            }
+            borrowed.incrementAndGet();
+            return connection;
+        }
+        catch (SQLException | RuntimeException e) {
+            permits.release();
+            throw e;
+        }
+    }
+
+    /**
+     * Give a borrowed connection back. When the caller hit an error the connection is checked
+     * first and dropped if it no longer works; after {@link #close()} it is always dropped.
+     */
+    public void release(PooledConnection connection, boolean failed)
+    {
+        try {
+            if (shutDown) {
+                discard(connection);
+            }
+            else if (failed && !isValid(connection)) {
+                validationFailures.incrementAndGet();
+                discard(connection);
+            }
+            else {
+                connection.touch();
+                idle.offerFirst(connection);
+                if (shutDown) {
+                    // close() may have emptied the idle connections before this one came back
+                    closeIdle();
+                }
+            }
+        }
+        finally {
+            permits.release();
+        }
+    }
+
+    /**
+     * Close connections that have not been used for longer than the idle timeout.
+     */
+    public void evictIdle()
+    {
+        long now = System.currentTimeMillis();
+        Iterator<PooledConnection> it = idle.descendingIterator();
+        while (it.hasNext()) {
+            PooledConnection connection = it.next();
+            if (now - connection.getLastUsed() < idleTimeoutMs) {
+                // the rest are younger
+                break;
+            }
+            // only close it if no borrower took it meanwhile
+            if (idle.removeLastOccurrence(connection)) {
+                discard(connection);
+            }
+        }
+    }
+
+    /**
+     * Close the idle connections, and every borrowed one once it is released.
+     */
+    public void close()
+    {
+        shutDown = true;
+        closeIdle();
+    }
+
+    private void closeIdle()
+    {
+        PooledConnection connection;
+        while ((connection = idle.pollFirst()) != null) {
+            discard(connection);
+        }
+    }
+
+    int getQueryTimeoutSeconds()
+    {
+        return queryTimeoutSeconds;
+    }
+
+    boolean usesFallback(String kind)
+    {
+        return fallbackKinds.contains(kind);
+    }
+
+    void useFallback(String kind)
+    {
+        fallbackKinds.add(kind);
+    }
+
+    public int getActive()
+    {
+        return maxSize - permits.availablePermits();
+    }
+
+    public int getIdle()
+    {
+        return idle.size();
+    }
+
+    @SuppressWarnings("unchecked")
+    public JSONObject stats()
+    {
+        JSONObject object = new JSONObject();
+        long count = borrowed.get();
+        object.put("max", maxSize);
+        object.put("active", getActive());
+        object.put("idle", getIdle());
+        object.put("waiting", permits.getQueueLength());
+        object.put("borrowed", count);
+        object.put("created", created.get());
+        object.put("closed", closed.get());
+        object.put("borrow_timeouts", borrowTimeouts.get());
+        object.put("validation_failures", validationFailures.get());
+        object.put("wait_ms_total", TimeUnit.NANOSECONDS.toMillis(waitNanosTotal.get()));
+        object.put("wait_ms_avg", count == 0 ? 0.0 : waitNanosTotal.get() / 1_000_000.0 / count);
+        object.put("wait_ms_max", TimeUnit.NANOSECONDS.toMillis(waitNanosMax.get()));
+        object.put("statement_cache_hits", statementCacheHits.get());
+        object.put("statement_cache_misses", statementCacheMisses.get());
+        return object;
+    }
+
+    /**
+     * Time taken to log on, successful logons only.
+     */
+    public LatencyHistogram getConnectTime()
+    {
+        return connectTime;
+    }
+
+    public long getConnectErrors()
+    {
+        return connectErrors.get();
+    }
+
+    /**
+     * Timings of {@code kind} on this target.
+     */
+    public Timings timings(String kind)
+    {
+        return timings.computeIfAbsent(kind, k -> new Timings());
+    }
+
+    public Map<String, Timings> getTimings()
+    {
+        return timings;
+    }
+
+    @SuppressWarnings("unchecked")
+    public JSONObject timingsJson()
+    {
+        JSONObject connect = connectTime.toJson();
+        connect.put("errors", connectErrors.get());
+        JSONObject kinds = new JSONObject();
+        timings.forEach((kind, kindTimings) -> kinds.put(kind, kindTimings.toJson()));
+        JSONObject object = new JSONObject();
+        object.put("connect", connect);
+        object.put("kinds", kinds);
+        return object;
+    }
+
+    void statementCacheHit()
+    {
+        statementCacheHits.incrementAndGet();
+    }
+
+    void statementCacheMiss()
+    {
+        statementCacheMisses.incrementAndGet();
+    }
+
+    private PooledConnection open()
+            throws SQLException
+    {
+        Properties info = new Properties();
+        if (target.getUsername() != null) {
+            info.put("user", target.getUsername());
+        }
+        if (target.getPassword() != null) {
+            info.put("password", target.getPassword());
+        }
+        if (connectTimeoutSeconds > 0) {
+            // the thin driver otherwise waits for the operating system TCP timeout
+            info.put(CONNECT_TIMEOUT_PROPERTY, String.valueOf(TimeUnit.SECONDS.toMillis(connectTimeoutSeconds)));
+        }
+        if (queryTimeoutSeconds > 0) {
+            // last resort for a socket that stops answering, well after the statement should have been cancelled
+            info.put(READ_TIMEOUT_PROPERTY, String.valueOf(TimeUnit.SECONDS.toMillis(queryTimeoutSeconds * 2L + connectTimeoutSeconds)));
+        }
+        long start = System.nanoTime();
+        Connection connection;
+        try {
+            connection = DriverManager.getConnection(target.getUrl(), info);
+        }
+        catch (SQLException e) {
+            connectErrors.incrementAndGet();
+            throw e;
+        }
+        connectTime.record(System.nanoTime() - start);
+        created.incrementAndGet();
+        return new PooledConnection(this, connection, statementCacheSize);
+    }
+
+    private boolean isValid(PooledConnection connection)
+    {
+        try {
+            return connection.getConnection().isValid(VALIDATION_TIMEOUT_SECONDS);
+        }
+        catch (SQLException e) {
+            return false;
+        }
+    }
+
+    private void discard(PooledConnection connection)
+    {
+        connection.close();
+        closed.incrementAndGet();
+    }
+
+    private void recordWait(long nanos)
+    {
+        waitNanosTotal.addAndGet(nanos);
+        long max;
+        while (nanos > (max = waitNanosMax.get())) {
+            if (waitNanosMax.compareAndSet(max, nanos)) {
+                break;
+            }
+        }
+    }
+}
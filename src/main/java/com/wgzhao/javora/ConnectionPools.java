@@ -0,0 +1,110 @@
+package com.wgzhao.javora;
+
+import java.sql.SQLException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * One {@link ConnectionPool} per target, created on first use, plus the background task evicting idle connections.
+ */
+public class ConnectionPools
+{
+    public static final int DEFAULT_MAX_SIZE = 4;
+    public static final long DEFAULT_IDLE_TIMEOUT_MS = TimeUnit.MINUTES.toMillis(10);
+    public static final long DEFAULT_VALIDATION_INTERVAL_MS = TimeUnit.SECONDS.toMillis(30);
+    public static final long DEFAULT_BORROW_TIMEOUT_MS = TimeUnit.SECONDS.toMillis(30);
+    public static final int DEFAULT_STATEMENT_CACHE_SIZE = 64;
+    public static final int DEFAULT_CONNECT_TIMEOUT_SECONDS = 10;
+    public static final int DEFAULT_QUERY_TIMEOUT_SECONDS = 30;
+
+    // ORA-01017 invalid username/password, ORA-28000 account locked
+    private static final int INVALID_LOGON = 1017;
+    private static final int ACCOUNT_LOCKED = 28000;
+
+    private final Map<Target, ConnectionPool> pools = new ConcurrentHashMap<>();
+    private final int maxSize;
+    private final long idleTimeoutMs;
+    private final int connectTimeoutSeconds;
+    private final int queryTimeoutSeconds;
+    private final ScheduledExecutorService evictor;
+
+    public ConnectionPools()
+    {
+        this(DEFAULT_MAX_SIZE, DEFAULT_IDLE_TIMEOUT_MS);
+    }
+
+    public ConnectionPools(int maxSize, long idleTimeoutMs)
+    {
+        this(maxSize, idleTimeoutMs, DEFAULT_CONNECT_TIMEOUT_SECONDS, DEFAULT_QUERY_TIMEOUT_SECONDS);
+    }
+
+    public ConnectionPools(int maxSize, long idleTimeoutMs, int connectTimeoutSeconds, int queryTimeoutSeconds)
+    {
+        this.maxSize = maxSize;
+        this.idleTimeoutMs = idleTimeoutMs;
+        this.connectTimeoutSeconds = connectTimeoutSeconds;
+        this.queryTimeoutSeconds = queryTimeoutSeconds;
+        this.evictor = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "javora-pool-evictor");
+            t.setDaemon(true);
+            return t;
+        });
+        long period = Math.max(1000, idleTimeoutMs / 2);
+        evictor.scheduleWithFixedDelay(this::evictIdle, period, period, TimeUnit.MILLISECONDS);
+    }
+
+    public ConnectionPool get(Target target)
+    {
+        return pools.computeIfAbsent(target, t -> new ConnectionPool(t, maxSize, idleTimeoutMs,
+                DEFAULT_VALIDATION_INTERVAL_MS, DEFAULT_BORROW_TIMEOUT_MS, DEFAULT_STATEMENT_CACHE_SIZE,
+                connectTimeoutSeconds, queryTimeoutSeconds));
+    }
+
+    /**
+     * Borrow a connection from the pool of {@code target}. A pool whose logon is refused is dropped, so credentials
+     * that do not or no longer work, such as wrong passwords in keys naming a database, leave no pool behind.
+     */
+    public PooledConnection borrow(Target target)
+            throws SQLException
+    {
+        ConnectionPool pool = get(target);
+        try {
+            return pool.borrow();
+        }
+        catch (SQLException e) {
+            if (isLogonRefused(e) && pools.remove(target, pool)) {
+                pool.close();
+            }
+            throw e;
+        }
+    }
+
+    static boolean isLogonRefused(SQLException e)
+    {
+        return e.getErrorCode() == INVALID_LOGON || e.getErrorCode() == ACCOUNT_LOCKED;
+    }
+
+    private void evictIdle()
+    {
+        for (ConnectionPool pool : pools.values()) {
+            try {
+                pool.evictIdle();
+            }
+            catch (RuntimeException e) {
+                System.err.println("evicting idle connections of " + pool.getTarget() + " failed: " + e.getMessage());
+            }
+        }
+    }
+
+    public void close()
+    {
+        evictor.shutdownNow();
+        for (ConnectionPool pool : pools.values()) {
+            pool.close();
+        }
+        pools.clear();
+    }
+}
@@ -0,0 +1,235 @@
+package com.wgzhao.javora;
+
+import org.json.simple.JSONObject;
+import org.json.simple.parser.JSONParser;
+import org.json.simple.parser.ParseException;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Turns the cumulative counters of {@code all_stats} into per second rates computed by javora itself, so Zabbix
+ * needs no "change per second" preprocessing and instance restarts do not show up as spikes.
+ * <p>
+ * The first rate request for a target starts sampling it: every {@code resolution} the target's counters and
+ * uptime are read into a {@link CounterRing} sized for {@link #MAX_WINDOW_MS}. Targets nobody asked about for an
+ * hour stop being sampled and their ring is dropped.
+ * <p>
+ * Each target samples on a thread of its own (a virtual thread on JDK 21 and later), taken only for the sample.
+ * A target whose sample has not returned yet, e.g. one hanging until the query timeout, skips its next samples
+ * instead of holding up the others.
+ */
+public class CounterHistory
+        implements AutoCloseable
+{
+    public static final long DEFAULT_RESOLUTION_MS = TimeUnit.SECONDS.toMillis(15);
+    public static final long MAX_WINDOW_MS = TimeUnit.MINUTES.toMillis(15);
+
+    private static final long IDLE_MS = TimeUnit.HOURS.toMillis(1);
+    private static final List<String> DERIVED_KINDS = Arrays.asList(Collector.RATE, Collector.DELTA,
+            Collector.RATE_MIN, Collector.RATE_MAX, Collector.RATE_AVG);
+
+    /**
+     * Runs a kind on a target for the sampler.
+     */
+    public interface Source
+    {
+        String collect(Target target, String kind)
+                throws SQLException;
+    }
+
+    private final Source source;
+    private final long resolutionMs;
+    private final String[] kinds;
+    private final Map<Target, Tracked> tracked = new ConcurrentHashMap<>();
+    // starts the samples, which run on the lanes
+    private final ScheduledExecutorService ticker;
+    private final ExecutorService lanes;
+
+    public CounterHistory(Source source, long resolutionMs)
+    {
+        this.source = source;
+        this.resolutionMs = resolutionMs;
+        this.kinds = OracleMonitor.counterKinds().toArray(new String[0]);
+        ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(1, r -> {
+            Thread t = new Thread(r, "javora-sampler");
+            t.setDaemon(true);
+            return t;
+        });
+        executor.setRemoveOnCancelPolicy(true);
+        this.ticker = executor;
+        ExecutorService virtual = InventoryCollector.newVirtualThreadExecutor();
+        if (virtual != null) {
+            this.lanes = virtual;
+        }
+        else {
+            AtomicInteger counter = new AtomicInteger();
+            this.lanes = Executors.newCachedThreadPool(r -> {
+                Thread t = new Thread(r, "javora-sampler-" + counter.incrementAndGet());
+                t.setDaemon(true);
+                return t;
+            });
+        }
+    }
+
+    /**
+     * The cumulative counter kinds rates can be asked for.
+     */
+    public static boolean isCounter(String kind)
+    {
+        return OracleMonitor.counterKinds().contains(kind);
+    }
+
+    private final class Tracked
+    {
+        final Target target;
+        final CounterRing ring = new CounterRing(kinds, (int) (MAX_WINDOW_MS / resolutionMs) + 2);
+        volatile long lastRequested = System.currentTimeMillis();
+        final AtomicBoolean sampling = new AtomicBoolean();
+        volatile ScheduledFuture<?> task;
+        volatile String lastError;
+
+        Tracked(Target target)
+        {
+            this.target = target;
+        }
+
+        void tick()
+        {
+            if (System.currentTimeMillis() - lastRequested > IDLE_MS) {
+                tracked.remove(target, this);
+                task.cancel(false);
+                return;
+            }
+            if (!sampling.compareAndSet(false, true)) {
+                // the previous sample still holds the lane, this one is a gap
+                return;
+            }
+            try {
+                lanes.execute(() -> {
+                    try {
+                        sample();
+                    }
+                    finally {
+                        sampling.set(false);
+                    }
+                });
+            }
+            catch (RejectedExecutionException e) {
+                // closed
+                sampling.set(false);
+            }
+        }
+
+        private void sample()
+        {
+            try {
+                long now = System.currentTimeMillis();
+                JSONObject stats = (JSONObject) new JSONParser().parse(source.collect(target, OracleMonitor.ALL_STATS));
+                long uptime = -1;
+                try {
+                    uptime = Long.parseLong(source.collect(target, "uptime").trim());
+                }
+                catch (SQLException | NumberFormatException e) {
+                    // without uptime, resets are told from counters going down
+                }
+                Map<String, Long> counters = new HashMap<>();
+                for (String kind : kinds) {
+                    Object value = stats.get(kind);
+                    if (value instanceof Number) {
+                        counters.put(kind, ((Number) value).longValue());
+                    }
+                }
+                ring.add(now, uptime, counters);
+                lastError = null;
+            }
+            catch (SQLException | ParseException | RuntimeException e) {
+                // a gap in the ring, the intervals around it are skipped
+                lastError = e.getMessage();
+            }
+        }
+    }
+
+    private Tracked track(Target target)
+    {
+        Tracked t = tracked.computeIfAbsent(target, key -> {
+            Tracked created = new Tracked(key);
+            created.task = ticker.scheduleAtFixedRate(created::tick, 0, resolutionMs, TimeUnit.MILLISECONDS);
+            return created;
+        });
+        t.lastRequested = System.currentTimeMillis();
+        return t;
+    }
+
+    /**
+     * Answer a derived kind: {@code rate} or {@code delta} of a counter, or {@code rate_min}, {@code rate_max},
+     * {@code rate_avg} over a window of minutes given as second argument (default 5, at most 15).
+     */
+    public String collect(Target target, String derivedKind, String... param)
+    {
+        if (param.length < 1 || !isCounter(param[0])) {
+            throw new IllegalArgumentException("the kind " + derivedKind + " need a counter kind argument, one of "
+                    + OracleMonitor.counterKinds());
+        }
+        Tracked t = track(target);
+        int k = t.ring.indexOf(param[0]);
+        switch (derivedKind) {
+            case Collector.DELTA:
+                return format(t, t.ring.delta(k));
+            case Collector.RATE:
+                return format(t, t.ring.rate(k));
+            default:
+                long windowMs = TimeUnit.MINUTES.toMillis(param.length > 1 ? Long.parseLong(param[1]) : 5);
+                if (windowMs <= 0 || windowMs > MAX_WINDOW_MS) {
+                    throw new IllegalArgumentException("window must be 1 to " + TimeUnit.MILLISECONDS.toMinutes(MAX_WINDOW_MS) + " minutes");
+                }
+                double[] aggregate = t.ring.window(k, windowMs);
+                if (aggregate == null) {
+                    return format(t, null);
+                }
+                int index = Collector.RATE_MIN.equals(derivedKind) ? 0 : Collector.RATE_MAX.equals(derivedKind) ? 1 : 2;
+                return format(t, aggregate[index]);
+        }
+    }
+
+    private static String format(Tracked t, Number value)
+    {
+        if (value == null) {
+            String error = t.lastError;
+            throw new IllegalStateException(error != null ? "sampling failed: " + error
+                    : "not enough samples yet, " + t.ring.size() + " collected");
+        }
+        if (value instanceof Long) {
+            return value.toString();
+        }
+        return BigDecimal.valueOf(value.doubleValue()).setScale(4, RoundingMode.HALF_UP).stripTrailingZeros().toPlainString();
+    }
+
+    @Override
+    public void close()
+    {
+        ticker.shutdownNow();
+        lanes.shutdownNow();
+        tracked.clear();
+    }
+
+    static List<String> derivedKinds()
+    {
+        return DERIVED_KINDS;
+    }
+}
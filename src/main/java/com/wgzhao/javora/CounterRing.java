@@ -0,0 +1,142 @@
+package com.wgzhao.javora;
+
+import java.util.Map;
+
+/**
+ * A fixed number of recent samples of every cumulative counter of one target, kept in primitive arrays so the
+ * memory used does not depend on how long the process runs.
+ * <p>
+ * Each slot holds the time of the sample, the instance uptime and one value per counter kind. Between two
+ * samples a counter is considered reset, and the interval ignored, when the uptime went down (the instance
+ * restarted) or the counter did.
+ */
+final class CounterRing
+{
+    // marks a counter missing from a sample
+    private static final long MISSING = Long.MIN_VALUE;
+
+    private final String[] kinds;
+    private final long[] times;
+    private final long[] uptimes;
+    private final long[][] values;
+    private int head = -1;
+    private int count;
+
+    CounterRing(String[] kinds, int capacity)
+    {
+        this.kinds = kinds;
+        this.times = new long[capacity];
+        this.uptimes = new long[capacity];
+        this.values = new long[kinds.length][capacity];
+    }
+
+    int indexOf(String kind)
+    {
+        for (int i = 0; i < kinds.length; i++) {
+            if (kinds[i].equals(kind)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Append a sample, overwriting the oldest one once the ring is full.
+     *
+     * @param uptime instance uptime in seconds, negative if unknown
+     */
+    synchronized void add(long timeMillis, long uptime, Map<String, Long> counters)
+    {
+        head = (head + 1) % times.length;
+        count = Math.min(count + 1, times.length);
+        times[head] = timeMillis;
+        uptimes[head] = uptime;
+        for (int k = 0; k < kinds.length; k++) {
+            Long value = counters.get(kinds[k]);
+            values[k][head] = value == null ? MISSING : value;
+        }
+    }
+
+    synchronized int size()
+    {
+        return count;
+    }
+
+    private int slot(int age)
+    {
+        return (head - age + times.length) % times.length;
+    }
+
+    // whether the interval between two slots can be used for counter k
+    private boolean continuous(int k, int older, int newer)
+    {
+        long a = values[k][older];
+        long b = values[k][newer];
+        if (a == MISSING || b == MISSING || times[newer] <= times[older] || b < a) {
+            return false;
+        }
+        return uptimes[older] < 0 || uptimes[newer] < 0 || uptimes[newer] >= uptimes[older];
+    }
+
+    /**
+     * Increase of counter {@code k} between the two latest samples, or {@code null} if unknown or reset.
+     */
+    synchronized Long delta(int k)
+    {
+        if (count < 2) {
+            return null;
+        }
+        int newer = slot(0);
+        int older = slot(1);
+        return continuous(k, older, newer) ? values[k][newer] - values[k][older] : null;
+    }
+
+    /**
+     * Per second increase of counter {@code k} between the two latest samples, or {@code null} if unknown or reset.
+     */
+    synchronized Double rate(int k)
+    {
+        Long delta = delta(k);
+        if (delta == null) {
+            return null;
+        }
+        return delta * 1000.0 / (times[slot(0)] - times[slot(1)]);
+    }
+
+    /**
+     * Minimum, maximum and time weighted average of the per second rates of counter {@code k} over the intervals
+     * ending within the last {@code windowMillis}, or {@code null} if there is no usable interval.
+     */
+    synchronized double[] window(int k, long windowMillis)
+    {
+        if (count < 2) {
+            return null;
+        }
+        long since = times[head] - windowMillis;
+        double min = Double.MAX_VALUE;
+        double max = -Double.MAX_VALUE;
+        long deltas = 0;
+        long millis = 0;
+        for (int age = 0; age + 1 < count; age++) {
+            int newer = slot(age);
+            int older = slot(age + 1);
+            if (times[older] < since) {
+                break;
+            }
+            if (!continuous(k, older, newer)) {
+                continue;
+            }
+            long delta = values[k][newer] - values[k][older];
+            long duration = times[newer] - times[older];
+            double rate = delta * 1000.0 / duration;
+            min = Math.min(min, rate);
+            max = Math.max(max, rate);
+            deltas += delta;
+            millis += duration;
+        }
+        if (millis == 0) {
+            return null;
+        }
+        return new double[] {min, max, deltas * 1000.0 / millis};
+    }
+}
@@ -0,0 +1,224 @@
+package com.wgzhao.javora;
+
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+import org.json.simple.parser.JSONParser;
+import org.json.simple.parser.ParseException;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The databases to collect from and the checks to run on each, read from a JSON file:
+ * <pre>
+ * {
+ *   "defaults": {"port": "1521", "username": "zabbix", "password": "secret", "checks": ["check_active", "all_stats"]},
+ *   "targets": [
+ *     {"host": "erp", "address": "db1.example.com", "database": "erp"},
+ *     {"host": "crm", "address": "db2.example.com", "database": "crm", "checks": ["all_stats", "tablespace[USERS]"]}
+ *   ]
+ * }
+ * </pre>
+ * {@code host} is the Zabbix host name the values belong to, {@code address} the database server (defaults to
+ * {@code host}). Checks are written like the arguments of an item key, {@code kind} or {@code kind[argument]}.
+ * When collecting on a schedule, a check may also be given as {@code {"check": "dbsize", "interval": 3600}};
+ * others use the {@code interval} (seconds) of their target or of the defaults.
+ */
+public class Inventory
+{
+    /**
+     * A kind with its argument, and the item key its values are reported under.
+     */
+    public static class Check
+    {
+        private final String kind;
+        private final String[] param;
+        private final long intervalSeconds;
+
+        public Check(String kind, String... param)
+        {
+            this(0, kind, param);
+        }
+
+        public Check(long intervalSeconds, String kind, String... param)
+        {
+            this.intervalSeconds = intervalSeconds;
+            this.kind = kind;
+            this.param = param;
+        }
+
+        static Check parse(String spec)
+        {
+            return parse(spec, 0);
+        }
+
+        static Check parse(String spec, long intervalSeconds)
+        {
+            String kind = ZabbixAgentServer.keyName(spec);
+            List<String> params = ZabbixAgentServer.keyParams(spec);
+            if (!Collector.isKind(kind)) {
+                throw new IllegalArgumentException("no such kind: " + kind);
+            }
+            if (Collector.needParam(kind) && params.isEmpty()) {
+                throw new IllegalArgumentException("the kind " + kind + " need a argument");
+            }
+            return new Check(intervalSeconds, kind, params.toArray(new String[0]));
+        }
+
+        public String getKind()
+        {
+            return kind;
+        }
+
+        public String[] getParam()
+        {
+            return param;
+        }
+
+        /**
+         * Seconds between two runs of the check, 0 if the inventory does not say.
+         */
+        public long getIntervalSeconds()
+        {
+            return intervalSeconds;
+        }
+
+        /**
+         * The short form item key, {@code javora[kind,param]}.
+         */
+        public String key()
+        {
+            StringBuilder key = new StringBuilder(ZabbixAgentServer.ITEM_KEY).append('[').append(kind);
+            for (String p : param) {
+                key.append(',');
+                if (p.indexOf(',') >= 0 || p.indexOf(']') >= 0 || p.indexOf('"') >= 0 || p.startsWith(" ")) {
+                    key.append('"').append(p.replace("\"", "\\\"")).append('"');
+                }
+                else {
+                    key.append(p);
+                }
+            }
+            return key.append(']').toString();
+        }
+    }
+
+    /**
+     * A database, the Zabbix host it is reported as, and its checks.
+     */
+    public static class Entry
+    {
+        private final String host;
+        private final Target target;
+        private final List<Check> checks;
+
+        public Entry(String host, Target target, List<Check> checks)
+        {
+            this.host = host;
+            this.target = target;
+            this.checks = Collections.unmodifiableList(checks);
+        }
+
+        public String getHost()
+        {
+            return host;
+        }
+
+        public Target getTarget()
+        {
+            return target;
+        }
+
+        public List<Check> getChecks()
+        {
+            return checks;
+        }
+    }
+
+    private final List<Entry> entries;
+
+    public Inventory(List<Entry> entries)
+    {
+        this.entries = Collections.unmodifiableList(entries);
+    }
+
+    public List<Entry> getEntries()
+    {
+        return entries;
+    }
+
+    public static Inventory load(Path file)
+            throws IOException
+    {
+        try (Reader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            return parse((JSONObject) new JSONParser().parse(reader));
+        }
+        catch (ParseException | ClassCastException e) {
+            throw new IOException("invalid inventory " + file + ": " + e, e);
+        }
+    }
+
+    static Inventory parse(JSONObject root)
+    {
+        JSONObject defaults = root.containsKey("defaults") ? (JSONObject) root.get("defaults") : new JSONObject();
+        JSONArray targets = (JSONArray) root.get("targets");
+        if (targets == null) {
+            throw new IllegalArgumentException("inventory has no targets");
+        }
+        List<Entry> entries = new ArrayList<>();
+        for (Object o : targets) {
+            JSONObject target = (JSONObject) o;
+            String host = setting(target, defaults, "host", null);
+            if (host == null) {
+                throw new IllegalArgumentException("inventory target without host: " + target.toJSONString());
+            }
+            Target database = Target.of(setting(target, defaults, "address", host),
+                    setting(target, defaults, "port", "1521"),
+                    setting(target, defaults, "database", "orcl"),
+                    setting(target, defaults, "username", "zabbix"),
+                    setting(target, defaults, "password", "password"));
+            JSONArray specs = (JSONArray) (target.containsKey("checks") ? target.get("checks") : defaults.get("checks"));
+            long interval = interval(setting(target, defaults, "interval", null), host);
+            List<Check> checks = new ArrayList<>();
+            if (specs != null) {
+                for (Object spec : specs) {
+                    if (spec instanceof JSONObject) {
+                        JSONObject check = (JSONObject) spec;
+                        long checkInterval = check.containsKey("interval") ? interval(String.valueOf(check.get("interval")), host)
+                                : interval;
+                        checks.add(Check.parse(String.valueOf(check.get("check")), checkInterval));
+                    }
+                    else {
+                        checks.add(Check.parse(spec.toString(), interval));
+                    }
+                }
+            }
+            entries.add(new Entry(host, database, checks));
+        }
+        return new Inventory(entries);
+    }
+
+    // seconds, 0 when not given
+    private static long interval(String value, String host)
+    {
+        if (value == null) {
+            return 0;
+        }
+        long seconds = Long.parseLong(value);
+        if (seconds <= 0) {
+            throw new IllegalArgumentException("interval of " + host + " must be positive: " + value);
+        }
+        return seconds;
+    }
+
+    private static String setting(JSONObject target, JSONObject defaults, String name, String fallback)
+    {
+        Object value = target.containsKey(name) ? target.get(name) : defaults.get(name);
+        return value == null ? fallback : value.toString();
+    }
+}
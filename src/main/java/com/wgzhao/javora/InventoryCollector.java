@@ -0,0 +1,256 @@
+package com.wgzhao.javora;
+
+import java.io.Closeable;
+import java.lang.reflect.Method;
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * Collects the checks of every database in an {@link Inventory} concurrently.
+ * <p>
+ * At most {@code workers} checks run at the same time overall, and at most {@code targetConcurrency} per
+ * database, so a slow or hanging database ties up a few workers instead of all of them. Checks run on virtual
+ * threads when the JVM has them (JDK 21 and later), otherwise on a fixed pool of {@code workers} threads.
+ */
+public class InventoryCollector
+        implements Closeable
+{
+    public static final int DEFAULT_WORKERS = 64;
+    public static final int DEFAULT_TARGET_CONCURRENCY = 2;
+
+    private final Collector collector;
+    private final int targetConcurrency;
+    private final Semaphore permits;
+    private final ExecutorService executor;
+    private final boolean virtual;
+
+    public InventoryCollector(Collector collector, int workers, int targetConcurrency)
+    {
+        this.collector = collector;
+        this.targetConcurrency = targetConcurrency;
+        this.permits = new Semaphore(workers, true);
+        this.executor = newExecutor(workers, "javora-collector-");
+        this.virtual = !(executor instanceof ThreadPoolExecutor);
+    }
+
+    /**
+     * An executor running tasks on virtual threads when the JVM has them (JDK 21 and later), otherwise on a fixed
+     * pool of {@code threads} daemon threads. Callers bound the concurrency of virtual threads themselves.
+     */
+    static ExecutorService newExecutor(int threads, String namePrefix)
+    {
+        ExecutorService virtualExecutor = newVirtualThreadExecutor();
+        if (virtualExecutor != null) {
+            return virtualExecutor;
+        }
+        AtomicInteger counter = new AtomicInteger();
+        return Executors.newFixedThreadPool(threads, r -> {
+            Thread t = new Thread(r, namePrefix + counter.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    // Executors.newVirtualThreadPerTaskExecutor() on JDK 21+, looked up reflectively since we build for Java 8;
+    // null on older JDKs
+    static ExecutorService newVirtualThreadExecutor()
+    {
+        try {
+            Method method = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) method.invoke(null);
+        }
+        catch (ReflectiveOperationException | RuntimeException e) {
+            // older JDK, or a preview API not enabled
+            return null;
+        }
+    }
+
+    public boolean isVirtual()
+    {
+        return virtual;
+    }
+
+    /**
+     * Run every check of the inventory once, handing each result to {@code sink} as soon as it is available, and
+     * return when all are done. {@code sink} is called from several threads at once.
+     */
+    public Report collect(Inventory inventory, Consumer<Sample> sink)
+            throws InterruptedException
+    {
+        List<Inventory.Entry> entries = inventory.getEntries();
+        long[] durations = new long[entries.size()];
+        AtomicLong failures = new AtomicLong();
+        int lanes = 0;
+        for (Inventory.Entry entry : entries) {
+            lanes += Math.min(targetConcurrency, entry.getChecks().size());
+        }
+
+        long start = System.nanoTime();
+        CountDownLatch done = new CountDownLatch(lanes);
+        int checks = 0;
+        for (int i = 0; i < entries.size(); i++) {
+            Inventory.Entry entry = entries.get(i);
+            checks += entry.getChecks().size();
+            int targetLanes = Math.min(targetConcurrency, entry.getChecks().size());
+            TargetRun run = new TargetRun(entry, i, targetLanes, durations, failures, sink, done);
+            for (int lane = 0; lane < targetLanes; lane++) {
+                executor.execute(run::lane);
+            }
+        }
+        done.await();
+        return new Report(entries.size(), checks, failures.get(), System.nanoTime() - start, durations);
+    }
+
+    private void check(Inventory.Entry entry, Inventory.Check check, AtomicLong failures, Consumer<Sample> sink)
+    {
+        String key = check.key();
+        try {
+            String value = collector.collect(entry.getTarget(), check.getKind(), check.getParam());
+            long collected = System.nanoTime();
+            sink.accept(Sample.of(entry.getHost(), key, value, System.currentTimeMillis()));
+            collector.recordOutput(entry.getTarget(), check.getKind(), System.nanoTime() - collected);
+        }
+        catch (SQLException | RuntimeException e) {
+            failures.incrementAndGet();
+            sink.accept(Sample.failure(entry.getHost(), key, String.valueOf(e.getMessage()), System.currentTimeMillis()));
+        }
+    }
+
+    /**
+     * The checks of one target, worked off by up to {@code targetConcurrency} lanes.
+     */
+    private class TargetRun
+    {
+        private final Inventory.Entry entry;
+        private final int index;
+        private final Queue<Inventory.Check> pending;
+        private final AtomicInteger activeLanes;
+        private final AtomicLong started = new AtomicLong();
+        private final long[] durations;
+        private final AtomicLong failures;
+        private final Consumer<Sample> sink;
+        private final CountDownLatch done;
+
+        TargetRun(Inventory.Entry entry, int index, int lanes, long[] durations, AtomicLong failures,
+                Consumer<Sample> sink, CountDownLatch done)
+        {
+            this.entry = entry;
+            this.index = index;
+            this.pending = new ConcurrentLinkedQueue<>(entry.getChecks());
+            this.activeLanes = new AtomicInteger(lanes);
+            this.durations = durations;
+            this.failures = failures;
+            this.sink = sink;
+            this.done = done;
+        }
+
+        void lane()
+        {
+            try {
+                Inventory.Check check;
+                while ((check = pending.poll()) != null) {
+                    permits.acquireUninterruptibly();
+                    try {
+                        started.compareAndSet(0, System.nanoTime());
+                        check(entry, check, failures, sink);
+                    }
+                    finally {
+                        permits.release();
+                    }
+                }
+            }
+            finally {
+                if (activeLanes.decrementAndGet() == 0) {
+                    durations[index] = System.nanoTime() - started.get();
+                }
+                done.countDown();
+            }
+        }
+    }
+
+    /**
+     * Throughput of one collection pass.
+     */
+    public static class Report
+    {
+        private final int targets;
+        private final int checks;
+        private final long failures;
+        private final long wallNanos;
+        private final long[] sortedDurations;
+
+        Report(int targets, int checks, long failures, long wallNanos, long[] durations)
+        {
+            this.targets = targets;
+            this.checks = checks;
+            this.failures = failures;
+            this.wallNanos = wallNanos;
+            this.sortedDurations = durations.clone();
+            Arrays.sort(sortedDurations);
+        }
+
+        public int getTargets()
+        {
+            return targets;
+        }
+
+        public int getChecks()
+        {
+            return checks;
+        }
+
+        public long getFailures()
+        {
+            return failures;
+        }
+
+        public long getWallMillis()
+        {
+            return TimeUnit.NANOSECONDS.toMillis(wallNanos);
+        }
+
+        public double getTargetsPerSecond()
+        {
+            return wallNanos == 0 ? 0 : targets * 1e9 / wallNanos;
+        }
+
+        /**
+         * The {@code p}-th percentile (0-100) of the time it took to collect one target, in milliseconds.
+         */
+        public long percentileMillis(double p)
+        {
+            if (sortedDurations.length == 0) {
+                return 0;
+            }
+            int rank = (int) Math.ceil(p / 100 * sortedDurations.length) - 1;
+            return TimeUnit.NANOSECONDS.toMillis(sortedDurations[Math.max(0, Math.min(rank, sortedDurations.length - 1))]);
+        }
+
+        @Override
+        public String toString()
+        {
+            return String.format("collected %d targets, %d checks (%d failed) in %d ms: %.1f targets/s, " +
+                            "per target p50 %d ms, p99 %d ms, max %d ms",
+                    targets, checks, failures, getWallMillis(), getTargetsPerSecond(),
+                    percentileMillis(50), percentileMillis(99), percentileMillis(100));
+        }
+    }
+
+    @Override
+    public void close()
+    {
+        executor.shutdownNow();
+    }
+}
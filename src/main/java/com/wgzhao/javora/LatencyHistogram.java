@@ -0,0 +1,134 @@
+package com.wgzhao.javora;
+
+import org.json.simple.JSONObject;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Durations counted in fixed buckets, so recording one is a few atomic increments and allocates nothing once the
+ * buckets exist; they are allocated by the first duration recorded.
+ * <p>
+ * The buckets are log-linear over microseconds: one per microsecond below 16, then 8 per power of two, so a
+ * percentile is at most 12.5% above the true value. Durations from about 18 minutes on, far beyond any query
+ * timeout, land in the last bucket, whose percentiles are the maximum.
+ */
+public class LatencyHistogram
+{
+    private static final int SUB_BITS = 3;
+    private static final int SUB_BUCKETS = 1 << SUB_BITS;
+    // below this every microsecond has a bucket of its own
+    private static final int LINEAR = SUB_BUCKETS * 2;
+    // 2^30 microseconds, about 18 minutes
+    private static final int MAX_EXPONENT = 29;
+    private static final int BUCKETS = LINEAR + (MAX_EXPONENT - SUB_BITS) * SUB_BUCKETS;
+
+    private volatile AtomicLongArray counts;
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong sumMicros = new AtomicLong();
+    private final AtomicLong maxMicros = new AtomicLong();
+
+    public void record(long nanos)
+    {
+        long micros = Math.max(0, nanos / 1000);
+        AtomicLongArray buckets = counts;
+        if (buckets == null) {
+            buckets = allocate();
+        }
+        buckets.incrementAndGet(bucket(micros));
+        count.incrementAndGet();
+        sumMicros.addAndGet(micros);
+        long max;
+        while (micros > (max = maxMicros.get())) {
+            if (maxMicros.compareAndSet(max, micros)) {
+                break;
+            }
+        }
+    }
+
+    private synchronized AtomicLongArray allocate()
+    {
+        if (counts == null) {
+            counts = new AtomicLongArray(BUCKETS);
+        }
+        return counts;
+    }
+
+    static int bucket(long micros)
+    {
+        if (micros < LINEAR) {
+            return (int) micros;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(micros);
+        if (exponent > MAX_EXPONENT) {
+            return BUCKETS - 1;
+        }
+        int sub = (int) (micros >>> (exponent - SUB_BITS)) & (SUB_BUCKETS - 1);
+        return LINEAR + (exponent - SUB_BITS - 1) * SUB_BUCKETS + sub;
+    }
+
+    // the smallest duration of the bucket after this one
+    static long upperBound(int bucket)
+    {
+        int next = bucket + 1;
+        if (next < LINEAR) {
+            return next;
+        }
+        int exponent = (next - LINEAR) / SUB_BUCKETS + SUB_BITS + 1;
+        int sub = (next - LINEAR) % SUB_BUCKETS;
+        return (long) (SUB_BUCKETS + sub) << (exponent - SUB_BITS);
+    }
+
+    public long getCount()
+    {
+        return count.get();
+    }
+
+    public double getSumSeconds()
+    {
+        return sumMicros.get() / 1e6;
+    }
+
+    public double getMaxSeconds()
+    {
+        return maxMicros.get() / 1e6;
+    }
+
+    /**
+     * The duration {@code quantile} (0 to 1) of the recorded ones stay within, in seconds, 0 if none were recorded.
+     */
+    public double getQuantileSeconds(double quantile)
+    {
+        long total = count.get();
+        AtomicLongArray buckets = counts;
+        if (total == 0 || buckets == null) {
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(quantile * total));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS - 1; i++) {
+            seen += buckets.get(i);
+            if (seen >= rank) {
+                return Math.min(upperBound(i), maxMicros.get()) / 1e6;
+            }
+        }
+        return getMaxSeconds();
+    }
+
+    @SuppressWarnings("unchecked")
+    public JSONObject toJson()
+    {
+        JSONObject object = new JSONObject();
+        object.put("count", getCount());
+        object.put("p50_ms", millis(getQuantileSeconds(0.5)));
+        object.put("p99_ms", millis(getQuantileSeconds(0.99)));
+        object.put("max_ms", millis(getMaxSeconds()));
+        return object;
+    }
+
+    // to the microsecond the buckets count in
+    private static double millis(double seconds)
+    {
+        return Math.round(seconds * 1e6) / 1e3;
+    }
+}
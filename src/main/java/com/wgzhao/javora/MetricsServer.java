@@ -0,0 +1,413 @@
+package com.wgzhao.javora;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.json.simple.JSONObject;
+
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Serves {@code /metrics} in the OpenMetrics text format, so Prometheus scrapes the same process and the same
+ * connection pools Zabbix is served from.
+ * <p>
+ * A scrape runs the bulk kinds only: {@code all_stats} for the counters and ratios, {@code all_gauges} for the
+ * other instance wide values and the {@code all_*} entity kinds, whose tablespace, diskgroup or user names become
+ * labels. Each query's metric families are written to the response as soon as it returns. With a
+ * {@link ResultCache} the results are shared with the Zabbix requests and kept for the time to live of their kind;
+ * the slow gauges such as {@code dbsize} are left out of {@code all_gauges} and kept as long as the kinds on their
+ * own. Without a
+ * {@code target} parameter the target given on the command line is scraped; {@code /metrics?target=<host>}
+ * scrapes a host of the inventory, the usual multi-target exporter pattern.
+ */
+public class MetricsServer
+        implements Closeable
+{
+    static final String CONTENT_TYPE = "application/openmetrics-text; version=1.0.0; charset=utf-8";
+
+    private static final String PREFIX = "oracle_";
+    private static final int THREADS = 4;
+    private static final String[] NO_PARAM = new String[0];
+
+    // entity kind -> name of the label holding the entity name
+    private static final Map<String, String> entityLabels = new LinkedHashMap<>();
+
+    static {
+        entityLabels.put("all_tablespaces", "tablespace");
+        entityLabels.put("all_tablespace_temp", "tablespace");
+        entityLabels.put("all_asm_volumes", "diskgroup");
+        entityLabels.put("all_users", "user");
+    }
+
+    private final Collector collector;
+    private final ResultCache cache;
+    private final Target defaultTarget;
+    private final Map<String, Target> targets;
+    private final HttpServer server;
+    private final ExecutorService workers;
+
+    /**
+     * @param cache keeps the bulk results for their time to live across scrapes, {@code null} to query at every
+     * scrape
+     * @param defaultTarget target scraped without a {@code target} parameter, may be {@code null}
+     * @param targets targets by host name selectable with the {@code target} parameter
+     */
+    public MetricsServer(Collector collector, ResultCache cache, Target defaultTarget, Map<String, Target> targets,
+            InetSocketAddress listen)
+            throws IOException
+    {
+        this.collector = collector;
+        this.cache = cache;
+        this.defaultTarget = defaultTarget;
+        this.targets = new HashMap<>(targets);
+        AtomicInteger counter = new AtomicInteger();
+        this.workers = Executors.newFixedThreadPool(THREADS, r -> {
+            Thread t = new Thread(r, "javora-metrics-" + counter.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+        this.server = HttpServer.create(listen, 0);
+        this.server.createContext("/metrics", this::handle);
+        this.server.setExecutor(workers);
+    }
+
+    public void start()
+    {
+        server.start();
+        InetSocketAddress address = server.getAddress();
+        System.out.println("javora metrics listening on http://" + address.getHostString() + ":" + address.getPort() + "/metrics");
+    }
+
+    private void handle(HttpExchange exchange)
+            throws IOException
+    {
+        try {
+            if (!"GET".equals(exchange.getRequestMethod())) {
+                error(exchange, 405, "only GET is supported");
+                return;
+            }
+            String host = queryParameter(exchange.getRequestURI().getRawQuery(), "target");
+            Target target = host == null ? defaultTarget : targets.get(host);
+            if (target == null) {
+                error(exchange, 404, host == null ? "a target parameter is required" : "no such target: " + host);
+                return;
+            }
+            exchange.getResponseHeaders().set("Content-Type", CONTENT_TYPE);
+            // chunked, the families are written while the later queries run
+            exchange.sendResponseHeaders(200, 0);
+            try (Writer writer = new BufferedWriter(new OutputStreamWriter(exchange.getResponseBody(), StandardCharsets.UTF_8))) {
+                scrape(target, writer);
+            }
+        }
+        finally {
+            exchange.close();
+        }
+    }
+
+    /**
+     * Query {@code target} and write its metrics in the OpenMetrics text format, ending with {@code # EOF}.
+     */
+    void scrape(Target target, Writer writer)
+            throws IOException
+    {
+        long start = System.nanoTime();
+        Map<String, Boolean> success = new LinkedHashMap<>();
+        List<String> queries = Arrays.asList(OracleMonitor.ALL_STATS, OracleMonitor.ALL_GAUGES, "all_tablespaces",
+                "all_tablespace_temp", "all_asm_volumes", "all_users");
+        for (String kind : queries) {
+            JSONObject values;
+            try {
+                values = load(target, kind);
+            }
+            catch (SQLException | RuntimeException e) {
+                success.put(kind, false);
+                continue;
+            }
+            success.put(kind, true);
+            if (OracleMonitor.ALL_GAUGES.equals(kind)) {
+                // the cached object is shared with the other scrapes
+                values = new JSONObject(values);
+                addSlowGauges(target, values, success);
+            }
+            long rendering = System.nanoTime();
+            if (entityLabels.containsKey(kind)) {
+                writeEntities(writer, entityLabels.get(kind), values);
+            }
+            else {
+                writeInstance(writer, values);
+            }
+            collector.recordOutput(target, kind, System.nanoTime() - rendering);
+        }
+
+        writeTimings(writer, collector.pool(target));
+
+        family(writer, "javora_scrape_query_success", "gauge", "whether the bulk query ran, by query");
+        for (Map.Entry<String, Boolean> entry : success.entrySet()) {
+            sample(writer, "javora_scrape_query_success", entry.getValue() ? 1 : 0, "query", entry.getKey());
+        }
+        family(writer, "javora_scrape_duration_seconds", "gauge", "time taken by the scrape");
+        sample(writer, "javora_scrape_duration_seconds", (System.nanoTime() - start) / (double) TimeUnit.SECONDS.toNanos(1));
+        writer.write("# EOF\n");
+    }
+
+    // a bulk kind through the result cache, all_gauges without the slow gauges
+    private JSONObject load(Target target, String kind)
+            throws SQLException
+    {
+        boolean gauges = OracleMonitor.ALL_GAUGES.equals(kind);
+        Collector.Work<JSONObject> work = gauges ? OracleMonitor::queryQuickGauges
+                : connection -> OracleMonitor.queryObject(connection, kind);
+        if (cache == null) {
+            return collector.run(target, work);
+        }
+        // the same entry as javora[all_stats] and the entity kinds asked for by Zabbix
+        return cache.getObject(target, gauges ? OracleMonitor.QUICK_GAUGES : kind, NO_PARAM, () -> collector.run(target, work));
+    }
+
+    // the slow gauges one by one, each kept as long as its own time to live, such as an hour for dbsize
+    @SuppressWarnings("unchecked")
+    private void addSlowGauges(Target target, JSONObject gauges, Map<String, Boolean> success)
+    {
+        for (String kind : OracleMonitor.slowGaugeKinds()) {
+            ResultCache.Loader loader = () -> collector.run(target, connection -> OracleMonitor.query(connection, kind));
+            String value;
+            try {
+                value = cache == null ? loader.load() : cache.get(target, kind, NO_PARAM, loader);
+            }
+            catch (SQLException | RuntimeException e) {
+                success.put(kind, false);
+                continue;
+            }
+            success.put(kind, true);
+            // the text Zabbix is answered with, "null" for no value such as lastapplarclog on a primary
+            if (!value.isEmpty() && !"null".equals(value)) {
+                gauges.put(kind, OracleMonitor.gaugeValue(value));
+            }
+        }
+    }
+
+    // all_stats and all_gauges: one family per kind
+    private static void writeInstance(Writer writer, JSONObject values)
+            throws IOException
+    {
+        for (Object entry : values.entrySet()) {
+            Map.Entry<?, ?> kindValue = (Map.Entry<?, ?>) entry;
+            String kind = (String) kindValue.getKey();
+            Object value = kindValue.getValue();
+            String name = PREFIX + kind;
+            if (value instanceof String) {
+                family(writer, name, "info", null);
+                sample(writer, name + "_info", 1, kind, (String) value);
+            }
+            else if (CounterHistory.isCounter(kind)) {
+                family(writer, name, "counter", OracleMonitor.counterSource(kind));
+                sample(writer, name + "_total", (Number) value);
+            }
+            else if (value != null) {
+                family(writer, name, "gauge", null);
+                sample(writer, name, (Number) value);
+            }
+        }
+    }
+
+    // per entity kinds: one family per kind, one sample per entity
+    private static void writeEntities(Writer writer, String label, JSONObject entities)
+            throws IOException
+    {
+        Set<String> kinds = new LinkedHashSet<>();
+        for (Object metrics : entities.values()) {
+            for (Object kind : ((JSONObject) metrics).keySet()) {
+                kinds.add((String) kind);
+            }
+        }
+        for (String kind : kinds) {
+            String name = PREFIX + kind;
+            boolean info = false;
+            boolean first = true;
+            for (Object entry : entities.entrySet()) {
+                Map.Entry<?, ?> entityMetrics = (Map.Entry<?, ?>) entry;
+                Object value = ((JSONObject) entityMetrics.getValue()).get(kind);
+                if (value == null) {
+                    // nothing to divide by, such as a dismounted diskgroup
+                    continue;
+                }
+                if (first) {
+                    info = value instanceof String;
+                    family(writer, name, info ? "info" : "gauge", null);
+                    first = false;
+                }
+                String entity = (String) entityMetrics.getKey();
+                if (info) {
+                    sample(writer, name + "_info", 1, label, entity, kind, String.valueOf(value));
+                }
+                else if (value instanceof Number) {
+                    sample(writer, name, (Number) value, label, entity);
+                }
+            }
+        }
+    }
+
+    // how long logons and the kinds run on the target took, as summaries
+    private static void writeTimings(Writer writer, ConnectionPool pool)
+            throws IOException
+    {
+        String duration = "javora_internal_duration_seconds";
+        family(writer, duration, "summary", "time taken by logons and by the phases of each kind");
+        summary(writer, duration, pool.getConnectTime(), "phase", "connect");
+        for (Map.Entry<String, Timings> entry : pool.getTimings().entrySet()) {
+            Timings timings = entry.getValue();
+            summary(writer, duration, timings.getExecute(), "kind", entry.getKey(), "phase", Timings.EXECUTE);
+            summary(writer, duration, timings.getFetch(), "kind", entry.getKey(), "phase", Timings.FETCH);
+            summary(writer, duration, timings.getOutput(), "kind", entry.getKey(), "phase", Timings.OUTPUT);
+        }
+        String max = "javora_internal_duration_max_seconds";
+        family(writer, max, "gauge", "longest logon and phase of each kind");
+        max(writer, max, pool.getConnectTime(), "phase", "connect");
+        for (Map.Entry<String, Timings> entry : pool.getTimings().entrySet()) {
+            Timings timings = entry.getValue();
+            max(writer, max, timings.getExecute(), "kind", entry.getKey(), "phase", Timings.EXECUTE);
+            max(writer, max, timings.getFetch(), "kind", entry.getKey(), "phase", Timings.FETCH);
+            max(writer, max, timings.getOutput(), "kind", entry.getKey(), "phase", Timings.OUTPUT);
+        }
+        String errors = "javora_internal_errors";
+        family(writer, errors, "counter", "failed logons and statements of each kind");
+        sample(writer, errors + "_total", pool.getConnectErrors(), "phase", "connect");
+        for (Map.Entry<String, Timings> entry : pool.getTimings().entrySet()) {
+            sample(writer, errors + "_total", entry.getValue().getErrors(), "kind", entry.getKey(), "phase", Timings.EXECUTE);
+        }
+    }
+
+    private static void max(Writer writer, String name, LatencyHistogram histogram, String... labels)
+            throws IOException
+    {
+        if (histogram.getCount() > 0) {
+            sample(writer, name, histogram.getMaxSeconds(), labels);
+        }
+    }
+
+    private static void summary(Writer writer, String name, LatencyHistogram histogram, String... labels)
+            throws IOException
+    {
+        if (histogram.getCount() == 0) {
+            return;
+        }
+        String[] quantile = Arrays.copyOf(labels, labels.length + 2);
+        quantile[labels.length] = "quantile";
+        quantile[labels.length + 1] = "0.5";
+        sample(writer, name, histogram.getQuantileSeconds(0.5), quantile);
+        quantile[labels.length + 1] = "0.99";
+        sample(writer, name, histogram.getQuantileSeconds(0.99), quantile);
+        sample(writer, name + "_count", histogram.getCount(), labels);
+        sample(writer, name + "_sum", histogram.getSumSeconds(), labels);
+    }
+
+    private static void family(Writer writer, String name, String type, String help)
+            throws IOException
+    {
+        writer.write("# TYPE ");
+        writer.write(name);
+        writer.write(' ');
+        writer.write(type);
+        writer.write('\n');
+        if (help != null) {
+            writer.write("# HELP ");
+            writer.write(name);
+            writer.write(' ');
+            writer.write(help);
+            writer.write('\n');
+        }
+    }
+
+    // labels as name, value pairs
+    private static void sample(Writer writer, String name, Number value, String... labels)
+            throws IOException
+    {
+        writer.write(name);
+        if (labels.length > 0) {
+            writer.write('{');
+            for (int i = 0; i < labels.length; i += 2) {
+                if (i > 0) {
+                    writer.write(',');
+                }
+                label(writer, labels[i], labels[i + 1]);
+            }
+            writer.write('}');
+        }
+        writer.write(' ');
+        writer.write(value.toString());
+        writer.write('\n');
+    }
+
+    private static void label(Writer writer, String name, String value)
+            throws IOException
+    {
+        writer.write(name);
+        writer.write("=\"");
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '\\':
+                    writer.write("\\\\");
+                    break;
+                case '"':
+                    writer.write("\\\"");
+                    break;
+                case '\n':
+                    writer.write("\\n");
+                    break;
+                default:
+                    writer.write(c);
+            }
+        }
+        writer.write('"');
+    }
+
+    private static void error(HttpExchange exchange, int status, String message)
+            throws IOException
+    {
+        byte[] body = (message + "\n").getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
+        exchange.sendResponseHeaders(status, body.length);
+        exchange.getResponseBody().write(body);
+    }
+
+    static String queryParameter(String rawQuery, String name)
+            throws IOException
+    {
+        if (rawQuery == null) {
+            return null;
+        }
+        for (String pair : rawQuery.split("&")) {
+            int eq = pair.indexOf('=');
+            if (eq > 0 && name.equals(pair.substring(0, eq))) {
+                return URLDecoder.decode(pair.substring(eq + 1), "UTF-8");
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public void close()
+    {
+        server.stop(0);
+        workers.shutdownNow();
+    }
+}
@@ -8,26 +8,77 @@ import org.apache.commons.cli.Options;
 import org.apache.commons.cli.ParseException;
 import org.json.simple.JSONObject;
 
-import java.sql.Connection;
-import java.sql.DriverManager;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.file.Paths;
+import java.sql.PreparedStatement;
 import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
 import java.sql.SQLException;
-import java.sql.Statement;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.Objects;
 import java.util.StringJoiner;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
 
 public class OracleMonitor
 {
 
     private static final Map<String, String> oracleMonitorSql = new HashMap<>();
 
+    // kinds reading a single v$sysstat counter, kind -> statistic name
+    private static final Map<String, String> sysstatKinds = new LinkedHashMap<>();
+
+    // kinds reading time_waited of a single wait event, kind -> event name
+    private static final Map<String, String> systemEventKinds = new LinkedHashMap<>();
+
+    // the kinds above, all cumulative counters
+    private static final List<String> counterKinds = new ArrayList<>();
+
+    // v$sysstat counters the ratio kinds are computed from
+    private static final List<String> ratioStats = Arrays.asList("session logical reads", "physical reads direct",
+            "physical reads direct (lob)", "physical reads", "sorts (memory)", "sorts (disk)",
+            "parse count (hard)", "parse count (total)");
+
+    // statements used instead of the one in oracleMonitorSql when that one reads a view the database lacks
+    private static final Map<String, String> fallbackSql = new HashMap<>();
+
+    static final String ALL_STATS = "all_stats";
+    static final String ALL_GAUGES = "all_gauges";
+
+    // instance wide kinds returning a single value that is not a counter
+    private static final List<String> gaugeKinds = Arrays.asList("active_user", "check_active", "dbsize", "dbfilesize",
+            "version", "uptime", "lastarclog", "lastapplarclog", "query_lock", "query_redologs", "query_rollbacks",
+            "query_sessions", "fra_use");
+
+    // gauges summing dba_* views or scanning v$archived_log, too expensive for every /metrics scrape
+    private static final List<String> slowGaugeKinds = Arrays.asList("dbsize", "dbfilesize", "lastapplarclog");
+
+    // all_gauges without the slow gauges, run by every /metrics scrape
+    static final String QUICK_GAUGES = "quick_gauges";
+    private static String quickGaugesSql;
+
+    // ORA-00942: table or view does not exist
+    private static final int TABLE_OR_VIEW_DOES_NOT_EXIST = 942;
+
     private static Boolean isVerbose = false;
 
+    private static int connectTimeout = ConnectionPools.DEFAULT_CONNECT_TIMEOUT_SECONDS;
+    private static int queryTimeout = ConnectionPools.DEFAULT_QUERY_TIMEOUT_SECONDS;
+
+    private static final int DEFAULT_LISTEN_PORT = 10055;
+    // how long a stopped daemon may take to close its connections and flush what it has to send
+    private static final long SHUTDOWN_TIMEOUT_SECONDS = 30;
+    private static final int DEFAULT_THREADS = 16;
+    private static final int DEFAULT_INTERVAL = 60;
+
     static {
         // count of active users
         oracleMonitorSql.put("active_user", "select to_char(count(*)-1, 'FM99999999999999990') retvalue " +
@@ -81,32 +132,25 @@ public class OracleMonitor
                 "              'FM99999999999999990') retvalue from v$instance");
 
         // User commits
-        oracleMonitorSql.put("commits", "select nvl(to_char(value, 'FM99999999999999990'), '0') retvalue from " +
-                "              v$sysstat where name = 'user commits'");
+        sysstat("commits", "user commits");
 
         // User rollbacks
-        oracleMonitorSql.put("rollbacks", "select nvl(to_char(value, 'FM99999999999999990'), '0') retvalue from " +
-                "v$sysstat where name = 'user rollbacks'");
+        sysstat("rollbacks", "user rollbacks");
 
         // Deadlocks
-        oracleMonitorSql.put("deadlocks", "select nvl(to_char(value, 'FM99999999999999990'), '0') retvalue from " +
-                "              v$sysstat where name = 'enqueue deadlocks'");
+        sysstat("deadlocks", "enqueue deadlocks");
 
         // Redo writes
-        oracleMonitorSql.put("redowrites", "select nvl(to_char(value, 'FM99999999999999990'), '0') retvalue from " +
-                "              v$sysstat where name = 'redo writes'");
+        sysstat("redowrites", "redo writes");
 
         // Table scans (long tables)
-        oracleMonitorSql.put("tblscans", "select nvl(to_char(value, 'FM99999999999999990'), '0') retvalue from " +
-                "              v$sysstat where name = 'table scans (long tables)'");
+        sysstat("tblscans", "table scans (long tables)");
 
         // Table scan rows gotten
-        oracleMonitorSql.put("tblrowsscans", "select nvl(to_char(value, 'FM99999999999999990'), '0') retvalue from " +
-                "              v$sysstat where name = 'table scan rows gotten'");
+        sysstat("tblrowsscans", "table scan rows gotten");
 
         // Index fast full scans (full)
-        oracleMonitorSql.put("indexffs", "select nvl(to_char(value, 'FM99999999999999990'), '0') retvalue from " +
-                "              v$sysstat where name = 'index fast full scans (full)'");
+        sysstat("indexffs", "index fast full scans (full)");
 
         // Hard parse ratio
         oracleMonitorSql.put("hparsratio", "SELECT nvl(to_char(h.value/t.value*100,'FM99999990.9999'), '0') " +
@@ -114,21 +158,17 @@ public class OracleMonitor
                 "              count (hard)' AND t.name = 'parse count (total)'");
 
         // Bytes sent via SQL*Net to client
-        oracleMonitorSql.put("netsent", "select nvl(to_char(value, 'FM99999999999999990'), '0') retvalue from " +
-                "              v$sysstat where name = 'bytes sent via SQL*Net to client'");
+        sysstat("netsent", "bytes sent via SQL*Net to client");
 
         // Bytes received SQL*Net from client
-        oracleMonitorSql.put("netresv", "select nvl(to_char(value, 'FM99999999999999990'), '0') retvalue from " +
-                "              v$sysstat where name = 'bytes received via SQL*Net from client'");
+        sysstat("netresv", "bytes received via SQL*Net from client");
 
         // SQL*Net roundtrips to/from client
 
-        oracleMonitorSql.put("netroundtrips", "select nvl(to_char(value, 'FM99999999999999990'), '0') retvalue from " +
-                "              v$sysstat where name = 'SQL*Net roundtrips to/from client'");
+        sysstat("netroundtrips", "SQL*Net roundtrips to/from client");
 
         // Logons current
-        oracleMonitorSql.put("logonscurrent", "select nvl(to_char(value, 'FM99999999999999990'), '0') retvalue from " +
-                "              v$sysstat where name = 'logons current'");
+        sysstat("logonscurrent", "logons current");
 
         // Last archived log sequence
         oracleMonitorSql.put("lastarclog", "select to_char(max(SEQUENCE#), 'FM99999999999999990') " +
@@ -140,69 +180,43 @@ public class OracleMonitor
                 "              where lh.SEQUENCE# = al.SEQUENCE# and applied='YES'");
 
         // Free buffer waits
-        oracleMonitorSql.put("freebufwaits", "select nvl(to_char(time_waited, 'FM99999999999999990'), '0') retvalue " +
-                "              from v$system_event se, v$event_name en " +
-                "              where se.event(+) = en.name and en.name = 'free buffer waits'");
+        systemEvent("freebufwaits", "free buffer waits");
 
         // Buffer busy waits
-        oracleMonitorSql.put("bufbusywaits", "select nvl(to_char(time_waited, 'FM99999999999999990'), '0') retvalue " +
-                "              from v$system_event se, v$event_name en where se.event(+) = " +
-                "              en.name and en.name = 'buffer busy waits'");
+        systemEvent("bufbusywaits", "buffer busy waits");
 
         // Log file switch completion
-        oracleMonitorSql.put("logswcompletion", "select nvl(to_char(time_waited, 'FM99999999999999990'), '0') retvalue " +
-                "              from v$system_event se, v$event_name en where se.event(+) " +
-                "              = en.name and en.name = 'log file switch completion'");
+        systemEvent("logswcompletion", "log file switch completion");
 
         // Log file sync
-        oracleMonitorSql.put("logfilesync", "select nvl(to_char(time_waited, 'FM99999999999999990'), '0') retvalue " +
-                "              from v$system_event se, v$event_name en " +
-                "              where se.event(+) = en.name and en.name = 'log file sync'");
+        systemEvent("logfilesync", "log file sync");
 
         // Log file parallel write
-        oracleMonitorSql.put("logprllwrite", "select nvl(to_char(time_waited, 'FM99999999999999990'), '0') retvalue " +
-                "              from v$system_event se, v$event_name en where se.event(+) " +
-                "              = en.name and en.name = 'log file parallel write'");
+        systemEvent("logprllwrite", "log file parallel write");
 
         // Enqueue waits
-        oracleMonitorSql.put("enqueue", "select nvl(to_char(time_waited, 'FM99999999999999990'), '0') retvalue " +
-                "              from v$system_event se, v$event_name en " +
-                "              where se.event(+) = en.name and en.name = 'enqueue'");
+        systemEvent("enqueue", "enqueue");
 
         // DB file sequential read waits
-        oracleMonitorSql.put("dbseqread", "select nvl(to_char(time_waited, 'FM99999999999999990'), '0') retvalue " +
-                "              from v$system_event se, v$event_name en where se.event(+) " +
-                "              = en.name and en.name = 'db file sequential read'");
+        systemEvent("dbseqread", "db file sequential read");
 
         // DB file scattered read
-        oracleMonitorSql.put("dbscattread", "select nvl(to_char(time_waited, 'FM99999999999999990'), '0') retvalue " +
-                "              from v$system_event se, v$event_name en where se.event(+) " +
-                "              = en.name and en.name = 'db file scattered read'");
+        systemEvent("dbscattread", "db file scattered read");
 
         // DB file single write
-        oracleMonitorSql.put("dbsnglwrite", "select nvl(to_char(time_waited, 'FM99999999999999990'), '0') retvalue " +
-                "              from v$system_event se, v$event_name en where se.event(+) " +
-                "              = en.name and en.name = 'db file single write'");
+        systemEvent("dbsnglwrite", "db file single write");
 
         // DB file parallel write waits
-        oracleMonitorSql.put("dbprllwrite", "select nvl(to_char(time_waited, 'FM99999999999999990'), '0') retvalue " +
-                "              from v$system_event se, v$event_name en where se.event(+) " +
-                "              = en.name and en.name = 'db file parallel write'");
+        systemEvent("dbprllwrite", "db file parallel write");
 
         // Direct path read
-        oracleMonitorSql.put("directread", "select nvl(to_char(time_waited, 'FM99999999999999990'), '0') retvalue " +
-                "              from v$system_event se, v$event_name en where se.event(+) " +
-                "              = en.name and en.name = 'direct path read'");
+        systemEvent("directread", "direct path read");
 
         // Direct path write
-        oracleMonitorSql.put("directwrite", "select nvl(to_char(time_waited, 'FM99999999999999990'), '0') retvalue " +
-                "              from v$system_event se, v$event_name en where se.event(+) " +
-                "              = en.name and en.name = 'direct path write'");
+        systemEvent("directwrite", "direct path write");
 
         // Latch free
-        oracleMonitorSql.put("latchfree", "select nvl(to_char(time_waited, 'FM99999999999999990'), '0') retvalue " +
-                "              from v$system_event se, v$event_name en where se.event(+) " +
-                "              = en.name and en.name = 'latch free'");
+        systemEvent("latchfree", "latch free");
 
         // List tablespace names in a JSON like format for Zabbix use
         // output:
@@ -248,7 +262,7 @@ public class OracleMonitor
         oracleMonitorSql.put("query_sessions", "select count(*) from gv$session where username is not null and status='ACTIVE'");
 
         // Query the Fast Recovery Area usage
-        oracleMonitorSql.put("fra_use", "select round((SPACE_LIMIT-(SPACE_LIMIT-SPACE_USED))/SPACE_LIMIT*100,2) FROM V$RECOVERY_FILE_DEST");
+        oracleMonitorSql.put("fra_use", "select round((SPACE_LIMIT-(SPACE_LIMIT-SPACE_USED))/NULLIF(SPACE_LIMIT, 0)*100,2) FROM V$RECOVERY_FILE_DEST");
 
         // Query the list of users on the instance
         oracleMonitorSql.put("show_users", "SELECT username FROM dba_users ORDER BY 1");
@@ -259,87 +273,677 @@ public class OracleMonitor
                 "  FROM   (SELECT tablespace_name,TRUNC(SUM(bytes)/1024/1024) AS free_mb FROM dba_free_space GROUP BY tablespace_name) a," +
                 "  (SELECT tablespace_name,TRUNC(SUM(bytes)/1024/1024) AS size_mb,TRUNC(SUM(GREATEST(bytes,maxbytes))/1024/1024) AS max_size_mb" +
                 "  FROM   dba_data_files GROUP BY tablespace_name) b WHERE  a.tablespace_name = b.tablespace_name" +
-                "  ) where tablespace_name='%s'");
+                "  ) where tablespace_name=?");
 
         // Get tablespace in use, pass tablespace name
         oracleMonitorSql.put("tablespace_abs", "SELECT (df.totalspace -  tu.totalusedspace) AS FREEMB from (select tablespace_name, " +
                 "  sum(bytes) TotalSpace from dba_data_files group by tablespace_name)  df ," +
                 " (select sum(bytes) totalusedspace,tablespace_name from dba_segments " +
-                "  group by tablespace_name) tu WHERE tu.tablespace_name = df.tablespace_name and df.tablespace_name = '%s' ");
+                "  group by tablespace_name) tu WHERE tu.tablespace_name = df.tablespace_name and df.tablespace_name = ? ");
 
         // List archive used
-        oracleMonitorSql.put("check_archive", "select trunc((total_mb-free_mb)*100/(total_mb)) PCT from v$asm_diskgroup_stat where name='%s'");
+        oracleMonitorSql.put("check_archive", "select trunc((total_mb-free_mb)*100/(total_mb)) PCT from v$asm_diskgroup_stat where name=?");
 
         // Query temporary tablespaces, pass tablespace name
         oracleMonitorSql.put("tablespace_temp", "SELECT round(((TABLESPACE_SIZE-FREE_SPACE)/TABLESPACE_SIZE)*100,2) " +
-                "              PERCENTUAL FROM dba_temp_free_space where  tablespace_name='%s'");
+                "              PERCENTUAL FROM dba_temp_free_space where  tablespace_name=?");
 
         // Query v$sysmetric parameters, pass metric name
         oracleMonitorSql.put("query_sysmetrics", "select value from v$sysmetric where METRIC_NAME ='{name.replace(\"_\", \" \")}' and rownum <=1");
 
         // Get ASM volume usage
         oracleMonitorSql.put("asm_volume_use", "select round(((TOTAL_MB-FREE_MB)/TOTAL_MB*100),2) from " +
-                "              v$asm_diskgroup_stat where name = '%s'");
+                "              v$asm_diskgroup_stat where name = ?");
 
         // Determines whether a user is locked or not, pass username
-        oracleMonitorSql.put("user_status", "SELECT account_status FROM dba_users WHERE username='%s'");
+        oracleMonitorSql.put("user_status", "SELECT account_status FROM dba_users WHERE username=?");
+
+        // All v$sysstat and v$system_event kinds above plus the ratios derived from v$sysstat in one round trip,
+        // as a JSON object keyed by kind name, meant as master item for dependent items
+        StringJoiner stats = new StringJoiner(", ");
+        sysstatKinds.values().forEach(name -> stats.add(quote(name)));
+        ratioStats.forEach(name -> stats.add(quote(name)));
+        StringJoiner events = new StringJoiner(", ");
+        systemEventKinds.values().forEach(name -> events.add(quote(name)));
+        oracleMonitorSql.put(ALL_STATS, "select 'S' source, name, value from v$sysstat where name in (" + stats + ") " +
+                "union all " +
+                "select 'E' source, en.name, nvl(se.time_waited, 0) value from v$system_event se, v$event_name en " +
+                "where se.event(+) = en.name and en.name in (" + events + ")");
+
+        // The single value kinds that are not counters in one round trip, as a JSON object keyed by kind name.
+        // Every statement becomes a scalar subquery, converted to text since the branches of a union must agree.
+        StringJoiner gauges = new StringJoiner(" union all ");
+        gaugeKinds.forEach(kind -> gauges.add("select " + quote(kind) + " kind, to_char((" + oracleMonitorSql.get(kind)
+                + ")) value from dual"));
+        oracleMonitorSql.put(ALL_GAUGES, gauges.toString());
+        StringJoiner quickGauges = new StringJoiner(" union all ");
+        gaugeKinds.stream().filter(kind -> !slowGaugeKinds.contains(kind)).forEach(kind -> quickGauges.add("select "
+                + quote(kind) + " kind, to_char((" + oracleMonitorSql.get(kind) + ")) value from dual"));
+        quickGaugesSql = quickGauges.toString();
+    }
+
+    static {
+        // The per entity kinds for every tablespace, temporary tablespace, ASM diskgroup or user in one query,
+        // as a JSON object keyed by entity name, then by kind name:
+        // {"USERS": {"tablespace": 42, "tablespace_abs": 73400320}, "SYSTEM": {...}}
+        // Each column alias is the name of the kind the column stands in for. Entities of size zero, such as
+        // dismounted diskgroups, get null instead of failing the whole statement with a division by zero.
+
+        // tablespace and tablespace_abs of all tablespaces. dba_tablespace_usage_metrics (10g and later) saves the
+        // dba_free_space and dba_segments scans; it already accounts for autoextend in tablespace_size.
+        oracleMonitorSql.put("all_tablespaces", "SELECT m.tablespace_name, " +
+                "  100 - TRUNC(100 - m.used_percent) AS \"tablespace\", " +
+                "  df.totalspace - m.used_space * t.block_size AS \"tablespace_abs\" " +
+                "  FROM dba_tablespace_usage_metrics m, dba_tablespaces t, " +
+                "  (SELECT tablespace_name, SUM(bytes) totalspace FROM dba_data_files GROUP BY tablespace_name) df " +
+                "  WHERE m.tablespace_name = t.tablespace_name AND m.tablespace_name = df.tablespace_name");
+        fallbackSql.put("all_tablespaces", "SELECT b.tablespace_name, " +
+                "  100 - TRUNC(((NVL(a.free_mb, 0) + (b.max_size_mb - b.size_mb)) / NULLIF(b.max_size_mb, 0)) * 100) AS \"tablespace\", " +
+                "  b.totalspace - NVL(tu.totalusedspace, 0) AS \"tablespace_abs\" " +
+                "  FROM (SELECT tablespace_name, TRUNC(SUM(bytes)/1024/1024) AS free_mb FROM dba_free_space " +
+                "  GROUP BY tablespace_name) a, " +
+                "  (SELECT tablespace_name, SUM(bytes) totalspace, TRUNC(SUM(bytes)/1024/1024) AS size_mb, " +
+                "  TRUNC(SUM(GREATEST(bytes,maxbytes))/1024/1024) AS max_size_mb FROM dba_data_files " +
+                "  GROUP BY tablespace_name) b, " +
+                "  (SELECT tablespace_name, SUM(bytes) totalusedspace FROM dba_segments GROUP BY tablespace_name) tu " +
+                "  WHERE b.tablespace_name = a.tablespace_name(+) AND b.tablespace_name = tu.tablespace_name(+)");
+
+        // tablespace_temp of all temporary tablespaces
+        oracleMonitorSql.put("all_tablespace_temp", "SELECT tablespace_name, " +
+                "  round(((TABLESPACE_SIZE-FREE_SPACE)/NULLIF(TABLESPACE_SIZE, 0))*100,2) AS \"tablespace_temp\" " +
+                "  FROM dba_temp_free_space");
+
+        // asm_volume_use and check_archive of all ASM diskgroups
+        oracleMonitorSql.put("all_asm_volumes", "SELECT name, " +
+                "  round(((TOTAL_MB-FREE_MB)/NULLIF(TOTAL_MB, 0)*100),2) AS \"asm_volume_use\", " +
+                "  trunc((total_mb-free_mb)*100/NULLIF(total_mb, 0)) AS \"check_archive\" " +
+                "  FROM v$asm_diskgroup_stat");
+
+        // user_status of all users
+        oracleMonitorSql.put("all_users", "SELECT username, account_status AS \"user_status\" FROM dba_users");
+    }
+
+    private static void sysstat(String kind, String name)
+    {
+        sysstatKinds.put(kind, name);
+        // the "... current" statistics are the value right now, the others count since startup
+        if (!name.endsWith(" current")) {
+            counterKinds.add(kind);
+        }
+        oracleMonitorSql.put(kind, "select nvl(to_char(value, 'FM99999999999999990'), '0') retvalue from " +
+                "              v$sysstat where name = " + quote(name));
+    }
+
+    private static void systemEvent(String kind, String name)
+    {
+        systemEventKinds.put(kind, name);
+        counterKinds.add(kind);
+        oracleMonitorSql.put(kind, "select nvl(to_char(time_waited, 'FM99999999999999990'), '0') retvalue " +
+                "              from v$system_event se, v$event_name en where se.event(+) " +
+                "              = en.name and en.name = " + quote(name));
+    }
+
+    private static String quote(String literal)
+    {
+        return "'" + literal.replace("'", "''") + "'";
     }
 
     private static final List<String> needParams = Arrays.asList("tablespace", "check_archive", "tablespace_temp", "tablespace_abs",
             "user_status", "asm_volume_use");
     private static final List<String> needJson = Arrays.asList("show_tablespaces", "show_tablespace_temp", "show_asm_volumes");
+    private static final List<String> needEntityJson = Arrays.asList("all_tablespaces", "all_tablespace_temp",
+            "all_asm_volumes", "all_users");
 
-    private static void oracleMonitor(String url, String username, String password, String kind, String... param)
+    static boolean isSupported(String kind)
+    {
+        return oracleMonitorSql.containsKey(kind);
+    }
+
+    static boolean needParam(String kind)
+    {
+        return needParams.contains(kind);
+    }
+
+    static List<String> counterKinds()
+    {
+        return Collections.unmodifiableList(counterKinds);
+    }
+
+    static List<String> gaugeKinds()
+    {
+        return gaugeKinds;
+    }
+
+    static List<String> slowGaugeKinds()
+    {
+        return slowGaugeKinds;
+    }
+
+    /**
+     * The view and name a counter kind reads, such as {@code v$sysstat 'user commits'}.
+     */
+    static String counterSource(String kind)
     {
-        Connection connection;
-        Statement statement;
+        String name = sysstatKinds.get(kind);
+        if (name != null) {
+            return "v$sysstat '" + name + "'";
+        }
+        name = systemEventKinds.get(kind);
+        return name == null ? null : "v$system_event '" + name + "' time_waited";
+    }
+
+    static String availableKinds()
+    {
+        StringJoiner stringJoiner = new StringJoiner(" ");
+        for (String k : oracleMonitorSql.keySet()) {
+            stringJoiner.add(k);
+        }
+        return stringJoiner.toString();
+    }
 
+    /**
+     * Run the check {@code kind} on a borrowed connection and return its output, one line per returned row.
+     * Every statement, including the ones taking an argument, is prepared once per connection and reused from
+     * its statement cache; arguments are passed as bind variables so the database parses each kind only once.
+     */
+    static String query(PooledConnection connection, String kind, String... param)
+            throws SQLException
+    {
+        return query(connection, kind, resultSet -> format(kind, resultSet), param);
+    }
+
+    /**
+     * Reads the rows of a statement.
+     */
+    interface Rows<T>
+    {
+        T read(ResultSet resultSet)
+                throws SQLException;
+    }
+
+    /**
+     * Run a bulk kind, {@code all_stats}, {@code all_gauges} or one of the per entity kinds, and return its
+     * values as a JSON object instead of text.
+     */
+    static JSONObject queryObject(PooledConnection connection, String kind)
+            throws SQLException
+    {
+        if (!ALL_STATS.equals(kind) && !ALL_GAUGES.equals(kind) && !needEntityJson.contains(kind)) {
+            throw new IllegalArgumentException("the kind " + kind + " does not return an object");
+        }
+        return query(connection, kind, resultSet -> formatObject(kind, resultSet));
+    }
+
+    /**
+     * Run {@code all_gauges} without the {@link #slowGaugeKinds() slow gauges}, timed as {@code quick_gauges}.
+     */
+    static JSONObject queryQuickGauges(PooledConnection connection)
+            throws SQLException
+    {
+        return query(connection, QUICK_GAUGES, quickGaugesSql, OracleMonitor::formatGauges);
+    }
+
+    private static <T> T query(PooledConnection connection, String kind, Rows<T> rows, String... param)
+            throws SQLException
+    {
+        String sql = oracleMonitorSql.get(kind);
+        if (sql == null) {
+            throw new IllegalArgumentException("no such kind: " + kind);
+        }
+        String fallback = fallbackSql.get(kind);
+        if (fallback == null) {
+            return query(connection, kind, sql, rows, param);
+        }
+        ConnectionPool pool = connection.getPool();
+        if (pool.usesFallback(kind)) {
+            return query(connection, kind, fallback, rows, param);
+        }
+        try {
+            return query(connection, kind, sql, rows, param);
+        }
+        catch (SQLException e) {
+            if (e.getErrorCode() != TABLE_OR_VIEW_DOES_NOT_EXIST) {
+                throw e;
+            }
+            if (isVerbose) {
+                System.out.println(kind + " falls back for " + pool.getTarget() + ": " + e.getMessage());
+            }
+            pool.useFallback(kind);
+            return query(connection, kind, fallback, rows, param);
+        }
+    }
+
+    private static <T> T query(PooledConnection connection, String kind, String sql, Rows<T> rows, String... param)
+            throws SQLException
+    {
+        if (isVerbose) {
+            System.out.println("query sql is : " + sql);
+        }
+        // preparing counts as executing, parsing happens then on a statement cache miss
+        Timings timings = connection.getPool().timings(kind);
+        long start = System.nanoTime();
         try {
-            connection = DriverManager.getConnection(url, username, password);
-            statement = connection.createStatement();
-
-            if (oracleMonitorSql.containsKey(kind)) {
-                String sql = oracleMonitorSql.get(kind);
-                // some sql need argument
-                if (needParams.contains(kind)) {
-                    sql = String.format(sql, param[0]);
+            PreparedStatement statement = connection.prepare(sql);
+            // some sql need argument
+            if (needParams.contains(kind)) {
+                if (param.length < 1) {
+                    throw new IllegalArgumentException("the kind " + kind + " need a argument");
                 }
                 if (isVerbose) {
-                    System.out.println("query sql is : " + sql);
+                    System.out.println("bind :1 = " + param[0]);
                 }
-                ResultSet resultSet = statement.executeQuery(sql);
-                if (needJson.contains(kind)) {
-                    JSONObject object = new JSONObject();
-
-                    List<Map<String, String>> res = new ArrayList<>();
-                    while (resultSet.next()) {
-                        Map<String, String> map = new HashMap<>();
-                        map.put("{#TABLESPACE}", resultSet.getString(1));
-                        res.add(map);
-                    }
-                    object.put("data", res);
-                    System.out.println(object.toJSONString());
+                statement.setString(1, param[0]);
+            }
+            try (ResultSet resultSet = statement.executeQuery()) {
+                long executed = System.nanoTime();
+                timings.getExecute().record(executed - start);
+                T result = rows.read(resultSet);
+                timings.getFetch().record(System.nanoTime() - executed);
+                return result;
+            }
+        }
+        catch (SQLException | RuntimeException e) {
+            timings.error();
+            throw e;
+        }
+    }
+
+    /**
+     * The statement text of {@code kind}, or {@code null} if there is no such kind.
+     */
+    static String sql(String kind)
+    {
+        return oracleMonitorSql.get(kind);
+    }
+
+    static String format(String kind, ResultSet resultSet)
+            throws SQLException
+    {
+        if (ALL_STATS.equals(kind) || ALL_GAUGES.equals(kind) || needEntityJson.contains(kind)) {
+            return formatObject(kind, resultSet).toJSONString();
+        }
+        StringJoiner output = new StringJoiner("\n");
+        if (needJson.contains(kind)) {
+            JSONObject object = new JSONObject();
+
+            List<Map<String, String>> res = new ArrayList<>();
+            while (resultSet.next()) {
+                Map<String, String> map = new HashMap<>();
+                map.put("{#TABLESPACE}", resultSet.getString(1));
+                res.add(map);
+            }
+            object.put("data", res);
+            output.add(object.toJSONString());
+        }
+        while (resultSet.next()) {
+            output.add(resultSet.getString(1));
+        }
+        return output.toString();
+    }
+
+    private static JSONObject formatObject(String kind, ResultSet resultSet)
+            throws SQLException
+    {
+        if (ALL_STATS.equals(kind)) {
+            return formatAllStats(resultSet);
+        }
+        if (ALL_GAUGES.equals(kind)) {
+            return formatGauges(resultSet);
+        }
+        return formatEntities(resultSet);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static JSONObject formatAllStats(ResultSet resultSet)
+            throws SQLException
+    {
+        Map<String, Long> stats = new HashMap<>();
+        Map<String, Long> events = new HashMap<>();
+        while (resultSet.next()) {
+            Map<String, Long> target = "E".equals(resultSet.getString(1)) ? events : stats;
+            target.put(resultSet.getString(2), resultSet.getLong(3));
+        }
+
+        JSONObject object = new JSONObject();
+        for (Map.Entry<String, String> entry : sysstatKinds.entrySet()) {
+            Long value = stats.get(entry.getValue());
+            if (value != null) {
+                object.put(entry.getKey(), value);
+            }
+        }
+        for (Map.Entry<String, String> entry : systemEventKinds.entrySet()) {
+            object.put(entry.getKey(), events.getOrDefault(entry.getValue(), 0L));
+        }
+
+        // the same formulas as the rcachehit, dsksortratio and hparsratio statements
+        Long logical = stats.get("session logical reads");
+        Long physical = stats.get("physical reads");
+        Long direct = stats.get("physical reads direct");
+        Long lob = stats.get("physical reads direct (lob)");
+        if (logical != null && physical != null && direct != null && lob != null && logical != 0) {
+            object.put("rcachehit", ratio(logical - (physical - lob - direct), logical));
+        }
+        Long memorySorts = stats.get("sorts (memory)");
+        Long diskSorts = stats.get("sorts (disk)");
+        if (memorySorts != null && diskSorts != null && memorySorts + diskSorts != 0) {
+            object.put("dsksortratio", ratio(diskSorts, diskSorts + memorySorts));
+        }
+        Long hardParses = stats.get("parse count (hard)");
+        Long totalParses = stats.get("parse count (total)");
+        if (hardParses != null && totalParses != null && totalParses != 0) {
+            object.put("hparsratio", ratio(hardParses, totalParses));
+        }
+        return object;
+    }
+
+    // kinds with no value, such as lastapplarclog on a primary, are left out
+    @SuppressWarnings("unchecked")
+    private static JSONObject formatGauges(ResultSet resultSet)
+            throws SQLException
+    {
+        JSONObject object = new JSONObject();
+        while (resultSet.next()) {
+            String value = resultSet.getString(2);
+            if (value != null) {
+                object.put(resultSet.getString(1), gaugeValue(value));
+            }
+        }
+        return object;
+    }
+
+    /**
+     * The text of a gauge as a whole or decimal number, or as is if it is no number, such as {@code version}.
+     */
+    static Object gaugeValue(String value)
+    {
+        try {
+            BigDecimal decimal = new BigDecimal(value.trim()).stripTrailingZeros();
+            return decimal.scale() <= 0 ? (Object) decimal.longValue() : (Object) decimal.doubleValue();
+        }
+        catch (NumberFormatException e) {
+            return value;
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static JSONObject formatEntities(ResultSet resultSet)
+            throws SQLException
+    {
+        ResultSetMetaData metaData = resultSet.getMetaData();
+        int columns = metaData.getColumnCount();
+        JSONObject object = new JSONObject();
+        while (resultSet.next()) {
+            JSONObject metrics = new JSONObject();
+            for (int i = 2; i <= columns; i++) {
+                metrics.put(metaData.getColumnLabel(i), jsonValue(resultSet, i));
+            }
+            object.put(resultSet.getString(1), metrics);
+        }
+        return object;
+    }
+
+    // numbers as JSON numbers, integral ones without fraction, so JSONPath preprocessing yields plain values
+    private static Object jsonValue(ResultSet resultSet, int column)
+            throws SQLException
+    {
+        Object value = resultSet.getObject(column);
+        if (value instanceof BigDecimal) {
+            BigDecimal decimal = ((BigDecimal) value).stripTrailingZeros();
+            return decimal.scale() <= 0 ? (Object) decimal.longValue() : (Object) decimal.doubleValue();
+        }
+        if (value instanceof Number || value == null) {
+            return value;
+        }
+        return value.toString();
+    }
+
+    // percentage rounded like to_char(..., 'FM99999990.9999')
+    private static double ratio(long part, long whole)
+    {
+        return Math.round(part * 1000000.0 / whole) / 10000.0;
+    }
+
+    private static void oracleMonitor(String url, String username, String password, String kind, String... param)
+    {
+        if (!oracleMonitorSql.containsKey(kind)) {
+            System.out.println("0");
+            System.out.println("no such kind: " + kind);
+            System.out.println("available kind is: " + availableKinds());
+            return;
+        }
+
+        // a single request, nothing for a circuit breaker to remember
+        try (Collector collector = new Collector(newPools(1), null, 0, 0)) {
+            String result = collector.collect(new Target(url, username, password), kind, param);
+            if (!result.isEmpty()) {
+                System.out.println(result);
+            }
+        }
+        catch (SQLException throwables) {
+            System.out.println("0");
+            System.out.println(throwables.getMessage());
+        }
+    }
+
+    private static ConnectionPools newPools(int poolSize)
+    {
+        return new ConnectionPools(poolSize, ConnectionPools.DEFAULT_IDLE_TIMEOUT_MS, connectTimeout, queryTimeout);
+    }
+
+    // long-running modes sample the counters of databases asked for rates, the one-shot ones answer no rates
+    private static Collector newCollector(CommandLine cmd, int poolSize, ResultCache cache, boolean longRunning)
+    {
+        long historyResolutionMs = !longRunning ? 0 : TimeUnit.SECONDS.toMillis(Long.parseLong(cmd.getOptionValue(
+                "rate-resolution", String.valueOf(TimeUnit.MILLISECONDS.toSeconds(CounterHistory.DEFAULT_RESOLUTION_MS)))));
+        int breakerFailures = Integer.parseInt(cmd.getOptionValue("breaker-failures", String.valueOf(CircuitBreaker.DEFAULT_THRESHOLD)));
+        long breakerCooldownMs = TimeUnit.SECONDS.toMillis(Long.parseLong(cmd.getOptionValue("breaker-cooldown",
+                String.valueOf(TimeUnit.MILLISECONDS.toSeconds(CircuitBreaker.DEFAULT_COOLDOWN_MS)))));
+        return new Collector(newPools(poolSize), cache, breakerFailures, breakerCooldownMs, historyResolutionMs);
+    }
+
+    private static void runDaemon(Target target, CommandLine cmd)
+    {
+        String listen = cmd.getOptionValue("listen", String.valueOf(DEFAULT_LISTEN_PORT));
+        int threads = Integer.parseInt(cmd.getOptionValue("threads", String.valueOf(DEFAULT_THREADS)));
+        InetSocketAddress address = listenAddress(listen);
+
+        int poolSize = Integer.parseInt(cmd.getOptionValue("pool-size", String.valueOf(ConnectionPools.DEFAULT_MAX_SIZE)));
+        ResultCache cache = newCache(cmd);
+        Collector collector = newCollector(cmd, poolSize, cache, true);
+
+        List<String> allow = cmd.hasOption("allow") ? Arrays.asList(cmd.getOptionValue("allow").split(",")) : Collections.emptyList();
+        int inlineTargets = Integer.parseInt(cmd.getOptionValue("inline-targets", "0"));
+        CountDownLatch closed = new CountDownLatch(1);
+        try (ZabbixAgentServer server = new ZabbixAgentServer(collector, target, address, threads, allow, inlineTargets)) {
+            onShutdown(() -> {
+                try {
+                    server.stop();
                 }
-                while (resultSet.next()) {
-                    System.out.println(resultSet.getString(1));
+                catch (IOException ignored) {
+                    // exiting anyway
                 }
+            }, closed);
+            MetricsServer metrics = startMetrics(cmd, collector, cache, target, Collections.emptyMap());
+            try {
+                server.serve();
             }
-            else {
-                System.out.println("0");
-                System.out.println("no such kind: " + kind);
-                StringJoiner stringJoiner = new StringJoiner(" ");
-                for (String k : oracleMonitorSql.keySet()) {
-                    stringJoiner.add(k);
+            finally {
+                if (metrics != null) {
+                    metrics.close();
                 }
-                System.out.println("available kind is: " + stringJoiner);
             }
+        }
+        catch (IOException | IllegalArgumentException e) {
+            System.out.println("0");
+            System.out.println("can not start daemon on " + listen + ": " + e.getMessage());
+        }
+        finally {
+            closed.countDown();
+        }
+    }
+
+    // the result cache of the daemon and of /metrics, null if --cache-size is 0
+    private static ResultCache newCache(CommandLine cmd)
+    {
+        int cacheSize = Integer.parseInt(cmd.getOptionValue("cache-size", String.valueOf(ResultCache.DEFAULT_MAX_SIZE)));
+        return cacheSize > 0 ? new ResultCache(cacheSize, ResultCache.parseTtls(cmd.getOptionValue("cache-ttl"))) : null;
+    }
 
-            statement.close();
-            connection.close();
+    // on SIGTERM only stop, the main thread closes everything once the work returns and the JVM waits for it
+    private static void onShutdown(Runnable stop, CountDownLatch closed)
+    {
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            if (closed.getCount() == 0) {
+                return;
+            }
+            stop.run();
+            try {
+                closed.await(SHUTDOWN_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+            }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }));
+    }
+
+    // [address:]port, a port alone on the loopback interface only
+    private static InetSocketAddress listenAddress(String listen)
+    {
+        int colon = listen.lastIndexOf(':');
+        if (colon < 0) {
+            return new InetSocketAddress(InetAddress.getLoopbackAddress(), Integer.parseInt(listen));
         }
-        catch (SQLException throwables) {
+        return new InetSocketAddress(listen.substring(0, colon), Integer.parseInt(listen.substring(colon + 1)));
+    }
+
+    // the /metrics endpoint if asked for, otherwise null
+    private static MetricsServer startMetrics(CommandLine cmd, Collector collector, ResultCache cache, Target defaultTarget,
+            Map<String, Target> targets)
+            throws IOException
+    {
+        if (!cmd.hasOption("metrics")) {
+            return null;
+        }
+        MetricsServer metrics = new MetricsServer(collector, cache, defaultTarget, targets, listenAddress(cmd.getOptionValue("metrics")));
+        metrics.start();
+        return metrics;
+    }
+
+    private static void runInventory(CommandLine cmd)
+    {
+        int workers = Integer.parseInt(cmd.getOptionValue("workers", String.valueOf(InventoryCollector.DEFAULT_WORKERS)));
+        int targetConcurrency = Integer.parseInt(cmd.getOptionValue("target-concurrency",
+                String.valueOf(InventoryCollector.DEFAULT_TARGET_CONCURRENCY)));
+        int poolSize = Math.max(targetConcurrency,
+                Integer.parseInt(cmd.getOptionValue("pool-size", String.valueOf(ConnectionPools.DEFAULT_MAX_SIZE))));
+
+        Inventory inventory;
+        try {
+            inventory = Inventory.load(Paths.get(cmd.getOptionValue("inventory")));
+        }
+        catch (IOException | RuntimeException e) {
             System.out.println("0");
-            System.out.println(throwables.getMessage());
+            System.out.println(e.getMessage());
+            return;
+        }
+
+        if (cmd.hasOption("push")) {
+            Map<String, Target> targets = new HashMap<>();
+            inventory.getEntries().forEach(entry -> targets.put(entry.getHost(), entry.getTarget()));
+            // the values pushed are never cached, only those scraped
+            try (Collector collector = newCollector(cmd, poolSize, null, true)) {
+                MetricsServer metrics = startMetrics(cmd, collector, newCache(cmd), null, targets);
+                try {
+                    push(inventory, collector, workers, targetConcurrency, cmd);
+                }
+                finally {
+                    if (metrics != null) {
+                        metrics.close();
+                    }
+                }
+            }
+            catch (IOException e) {
+                System.out.println("0");
+                System.out.println("can not serve metrics on " + cmd.getOptionValue("metrics") + ": " + e.getMessage());
+            }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return;
+        }
+
+        try (Collector collector = newCollector(cmd, poolSize, null, false);
+                InventoryCollector inventoryCollector = new InventoryCollector(collector, workers, targetConcurrency)) {
+            InventoryCollector.Report report = inventoryCollector.collect(inventory, sample -> {
+                if (sample.isFailed()) {
+                    System.err.println(sample.getHost() + " " + sample.getKey() + ": " + sample.getValue());
+                }
+                else {
+                    System.out.println(sample.toSenderLine());
+                }
+            });
+            System.err.println(report + (inventoryCollector.isVirtual() ? " on virtual threads" : ""));
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    // collect the inventory on a schedule and push the values to the zabbix server until the process is stopped
+    private static void push(Inventory inventory, Collector collector, int workers, int targetConcurrency, CommandLine cmd)
+            throws InterruptedException
+    {
+        long intervalMs = TimeUnit.SECONDS.toMillis(Long.parseLong(cmd.getOptionValue("interval", String.valueOf(DEFAULT_INTERVAL))));
+        if (intervalMs <= 0) {
+            System.out.println("0");
+            System.out.println("interval must be positive: " + cmd.getOptionValue("interval"));
+            return;
+        }
+        int batchSize = Integer.parseInt(cmd.getOptionValue("batch-size", String.valueOf(ZabbixSender.DEFAULT_BATCH_SIZE)));
+        long expensiveMs = Long.parseLong(cmd.getOptionValue("expensive-ms", String.valueOf(Scheduler.DEFAULT_EXPENSIVE_MS)));
+
+        Spool spool = null;
+        if (cmd.hasOption("spool")) {
+            long maxBytes = cmd.hasOption("spool-size") ? Long.parseLong(cmd.getOptionValue("spool-size")) * 1024 * 1024
+                    : Spool.DEFAULT_MAX_BYTES;
+            try {
+                spool = new Spool(Paths.get(cmd.getOptionValue("spool")), Math.min(Spool.DEFAULT_SEGMENT_BYTES, maxBytes / 2), maxBytes);
+            }
+            catch (IOException | RuntimeException e) {
+                System.out.println("0");
+                System.out.println("can not open spool " + cmd.getOptionValue("spool") + ": " + e.getMessage());
+                return;
+            }
+        }
+
+        CountDownLatch closed = new CountDownLatch(1);
+        try (ZabbixSender sender = new ZabbixSender(ZabbixSender.address(cmd.getOptionValue("push")), batchSize,
+                ZabbixSender.DEFAULT_FLUSH_INTERVAL_MS, ZabbixSender.DEFAULT_QUEUE_CAPACITY, spool);
+                Scheduler scheduler = new Scheduler(collector, sample -> {
+                    if (sample.isFailed()) {
+                        System.err.println(sample.getHost() + " " + sample.getKey() + ": " + sample.getValue());
+                    }
+                    else {
+                        sender.offer(sample);
+                    }
+                }, workers, targetConcurrency, expensiveMs)) {
+            scheduler.schedule(inventory, intervalMs);
+            // the sender flushes its queue when closed below
+            onShutdown(scheduler::stop, closed);
+            scheduler.start();
+            if (isVerbose) {
+                while (scheduler.isRunning()) {
+                    Thread.sleep(intervalMs);
+                    System.out.println("sent " + sender.getSent() + " values in " + sender.getBatches() + " batches, "
+                            + sender.getRejected() + " rejected, " + sender.getSpooled() + " spooled, "
+                            + sender.getDropped() + " dropped; ms per kind "
+                            + scheduler.costs().toJSONString());
+                }
+            }
+            scheduler.awaitTermination();
+        }
+        finally {
+            closed.countDown();
         }
     }
 
@@ -361,9 +965,74 @@ public class OracleMonitor
         options.addOption(new Option("P", "port", true, "listen port"));
         options.addOption(new Option("d", "database", true, "oracle SID or database"));
         options.addOption(new Option("k", "kind", true, "which check you want to do"));
+        options.addOption(Option.builder().longOpt("url").hasArg()
+                .desc("jdbc url of the database, instead of host, port and database").build());
         Option opt = new Option("v", "verbose", false, "more output for debug");
         opt.setRequired(false);
         options.addOption(opt);
+        options.addOption(Option.builder().longOpt("connect-timeout").hasArg()
+                .desc("seconds to wait for a connection to oracle, 0 waits forever, default "
+                        + ConnectionPools.DEFAULT_CONNECT_TIMEOUT_SECONDS).build());
+        options.addOption(Option.builder().longOpt("query-timeout").hasArg()
+                .desc("seconds a query may run before it is cancelled, 0 waits forever, default "
+                        + ConnectionPools.DEFAULT_QUERY_TIMEOUT_SECONDS).build());
+        options.addOption(Option.builder().longOpt("breaker-failures").hasArg()
+                .desc("consecutive connect failures or timeouts after which a database is not asked again until it is "
+                        + "back, 0 disables, default " + CircuitBreaker.DEFAULT_THRESHOLD).build());
+        options.addOption(Option.builder().longOpt("breaker-cooldown").hasArg()
+                .desc("seconds before asking an unavailable database again, default "
+                        + TimeUnit.MILLISECONDS.toSeconds(CircuitBreaker.DEFAULT_COOLDOWN_MS)).build());
+        options.addOption(Option.builder().longOpt("rate-resolution").hasArg()
+                .desc("seconds between samples of the counters behind the rate kinds in daemon and push mode, default "
+                        + TimeUnit.MILLISECONDS.toSeconds(CounterHistory.DEFAULT_RESOLUTION_MS)).build());
+        options.addOption(Option.builder().longOpt("metrics").hasArg()
+                .desc("in daemon and push mode, also serve prometheus metrics over http on [address:]port, a port "
+                        + "alone on loopback only").build());
+        options.addOption(Option.builder().longOpt("daemon")
+                .desc("run as a long-lived agent answering zabbix passive checks").build());
+        options.addOption(Option.builder().longOpt("listen").hasArg()
+                .desc("[address:]port the daemon listens on, a port alone listens on loopback only, default "
+                        + DEFAULT_LISTEN_PORT).build());
+        options.addOption(Option.builder().longOpt("allow").hasArg()
+                .desc("comma separated addresses, host names or address/prefix networks the daemon accepts connections "
+                        + "from, like the Server parameter of the zabbix agent, default any").build());
+        options.addOption(Option.builder().longOpt("inline-targets").hasArg()
+                .desc("databases the daemon connects to when a key names host and credentials, 0 refuses such keys, "
+                        + "default 0").build());
+        options.addOption(Option.builder().longOpt("pool-size").hasArg()
+                .desc("max connections per database of the daemon, default " + ConnectionPools.DEFAULT_MAX_SIZE).build());
+        options.addOption(Option.builder().longOpt("cache-size").hasArg()
+                .desc("max cached results of the daemon, 0 disables the cache, default " + ResultCache.DEFAULT_MAX_SIZE).build());
+        options.addOption(Option.builder().longOpt("cache-ttl").hasArg()
+                .desc("time to live in seconds of cached results per kind, like version=21600,check_active=5,default=30")
+                .build());
+        options.addOption(Option.builder().longOpt("inventory").hasArg()
+                .desc("collect the checks of every database listed in this JSON file and print them in zabbix_sender input format")
+                .build());
+        options.addOption(Option.builder().longOpt("workers").hasArg()
+                .desc("max checks running at once in inventory mode, default " + InventoryCollector.DEFAULT_WORKERS).build());
+        options.addOption(Option.builder().longOpt("target-concurrency").hasArg()
+                .desc("max checks running at once per database in inventory mode, default "
+                        + InventoryCollector.DEFAULT_TARGET_CONCURRENCY).build());
+        options.addOption(Option.builder().longOpt("push").hasArg()
+                .desc("in inventory mode, collect every interval and send the values to this zabbix server or proxy, host[:port]")
+                .build());
+        options.addOption(Option.builder().longOpt("interval").hasArg()
+                .desc("seconds between runs of checks without an interval in the inventory when pushing, default "
+                        + DEFAULT_INTERVAL).build());
+        options.addOption(Option.builder().longOpt("expensive-ms").hasArg()
+                .desc("when pushing, checks averaging this many milliseconds never run together on one database, default "
+                        + Scheduler.DEFAULT_EXPENSIVE_MS).build());
+        options.addOption(Option.builder().longOpt("batch-size").hasArg()
+                .desc("max values per request when pushing, default " + ZabbixSender.DEFAULT_BATCH_SIZE).build());
+        options.addOption(Option.builder().longOpt("spool").hasArg()
+                .desc("when pushing, keep the values the zabbix server can not take in this directory and send them "
+                        + "once it is back").build());
+        options.addOption(Option.builder().longOpt("spool-size").hasArg()
+                .desc("max megabytes the spool may take, the oldest values are dropped first, default "
+                        + Spool.DEFAULT_MAX_BYTES / 1024 / 1024).build());
+        options.addOption(Option.builder().longOpt("threads").hasArg()
+                .desc("number of worker threads of the daemon, default " + DEFAULT_THREADS).build());
         CommandLineParser parser = new DefaultParser();
         CommandLine cmd = null;
         try {
@@ -396,8 +1065,22 @@ public class OracleMonitor
         if (cmd.hasOption("v")) {
             isVerbose = true;
         }
+        if (cmd.hasOption("connect-timeout")) {
+            connectTimeout = Integer.parseInt(cmd.getOptionValue("connect-timeout"));
+        }
+        if (cmd.hasOption("query-timeout")) {
+            queryTimeout = Integer.parseInt(cmd.getOptionValue("query-timeout"));
+        }
 
-        String url = "jdbc:oracle:thin:@" + host + ":" + port + "/" + database;
+        String url = cmd.hasOption("url") ? cmd.getOptionValue("url") : "jdbc:oracle:thin:@" + host + ":" + port + "/" + database;
+        if (cmd.hasOption("inventory")) {
+            runInventory(cmd);
+            return;
+        }
+        if (cmd.hasOption("daemon")) {
+            runDaemon(new Target(url, username, password), cmd);
+            return;
+        }
         if (needParams.contains(kind)) {
             if (cmd.getArgs().length < 1) {
                 System.out.println("0");
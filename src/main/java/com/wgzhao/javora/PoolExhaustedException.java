@@ -0,0 +1,16 @@
+package com.wgzhao.javora;
+
+import java.sql.SQLTransientException;
+
+/**
+ * No connection of a pool became free in time. The database was never asked, so the {@link CircuitBreaker} of the
+ * target counts it neither as a failure nor as a success.
+ */
+public class PoolExhaustedException
+        extends SQLTransientException
+{
+    public PoolExhaustedException(String reason)
+    {
+        super(reason);
+    }
+}
@@ -0,0 +1,113 @@
+package com.wgzhao.javora;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A physical connection owned by a {@link ConnectionPool}, together with its cache of prepared statements.
+ * A pooled connection is used by a single thread between borrow and release, so nothing here is synchronized;
+ * only the time it was last used is also read by the idle eviction.
+ */
+public class PooledConnection
+{
+    private final ConnectionPool pool;
+    private final Connection connection;
+    private final LinkedHashMap<String, PreparedStatement> statements;
+    private final long createdAt;
+    // read by the evictor thread while the connection sits idle
+    private volatile long lastUsed;
+
+    PooledConnection(ConnectionPool pool, Connection connection, int statementCacheSize)
+    {
+        this.pool = pool;
+        this.connection = connection;
+        this.createdAt = System.currentTimeMillis();
+        this.lastUsed = createdAt;
+        this.statements = new LinkedHashMap<String, PreparedStatement>(16, 0.75f, true)
+        {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, PreparedStatement> eldest)
+            {
+                if (size() > statementCacheSize) {
+                    closeQuietly(eldest.getValue());
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    public ConnectionPool getPool()
+    {
+        return pool;
+    }
+
+    public Connection getConnection()
+    {
+        return connection;
+    }
+
+    /**
+     * Return a prepared statement for {@code sql}, reusing the one parsed by an earlier call on this connection.
+     */
+    public PreparedStatement prepare(String sql)
+            throws SQLException
+    {
+        PreparedStatement statement = statements.get(sql);
+        if (statement != null && !statement.isClosed()) {
+            pool.statementCacheHit();
+            return statement;
+        }
+        pool.statementCacheMiss();
+        statement = connection.prepareStatement(sql);
+        if (pool.getQueryTimeoutSeconds() > 0) {
+            statement.setQueryTimeout(pool.getQueryTimeoutSeconds());
+        }
+        statements.put(sql, statement);
+        return statement;
+    }
+
+    long getLastUsed()
+    {
+        return lastUsed;
+    }
+
+    void touch()
+    {
+        lastUsed = System.currentTimeMillis();
+    }
+
+    long getCreatedAt()
+    {
+        return createdAt;
+    }
+
+    void close()
+    {
+        Iterator<PreparedStatement> it = statements.values().iterator();
+        while (it.hasNext()) {
+            closeQuietly(it.next());
+            it.remove();
+        }
+        try {
+            connection.close();
+        }
+        catch (SQLException ignored) {
+            // the connection is discarded anyway
+        }
+    }
+
+    private static void closeQuietly(PreparedStatement statement)
+    {
+        try {
+            statement.close();
+        }
+        catch (SQLException ignored) {
+            // the statement is discarded anyway
+        }
+    }
+}
@@ -0,0 +1,288 @@
+package com.wgzhao.javora;
+
+import org.json.simple.JSONObject;
+import org.json.simple.parser.JSONParser;
+import org.json.simple.parser.ParseException;
+
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Results of checks keyed by target, kind and argument, kept for a per kind time to live and evicted least
+ * recently used first once the cache is full.
+ * <p>
+ * Concurrent requests for a key that is not cached are coalesced: the first one runs the query, the others wait
+ * for its result, so the database sees one statement however many pollers ask at the same moment. Failures are
+ * handed to every waiter but never cached.
+ * <p>
+ * A value is kept as the text Zabbix is answered with and, for JSON objects, also parsed, so that
+ * {@link #getObject} hits neither serialize nor parse.
+ */
+public class ResultCache
+{
+    public static final int DEFAULT_MAX_SIZE = 10_000;
+    public static final long DEFAULT_TTL_MS = TimeUnit.SECONDS.toMillis(30);
+
+    private static final Map<String, Long> defaultTtls = new HashMap<>();
+
+    static {
+        // hardly ever changes
+        defaultTtls.put("version", TimeUnit.HOURS.toMillis(6));
+        defaultTtls.put("dbfilesize", TimeUnit.HOURS.toMillis(1));
+        defaultTtls.put("dbsize", TimeUnit.HOURS.toMillis(1));
+        // scans of v$archived_log or dba_* views, also behind every /metrics scrape
+        defaultTtls.put("lastapplarclog", TimeUnit.MINUTES.toMillis(5));
+        defaultTtls.put("all_tablespaces", TimeUnit.MINUTES.toMillis(5));
+        defaultTtls.put("all_tablespace_temp", TimeUnit.MINUTES.toMillis(5));
+        defaultTtls.put("all_users", TimeUnit.MINUTES.toMillis(5));
+        // low level discovery
+        defaultTtls.put("show_tablespaces", TimeUnit.MINUTES.toMillis(10));
+        defaultTtls.put("show_tablespace_temp", TimeUnit.MINUTES.toMillis(10));
+        defaultTtls.put("show_asm_volumes", TimeUnit.MINUTES.toMillis(10));
+        defaultTtls.put("show_users", TimeUnit.MINUTES.toMillis(10));
+        // availability must be close to real time
+        defaultTtls.put("check_active", TimeUnit.SECONDS.toMillis(5));
+    }
+
+    /**
+     * Loads a value on a cache miss.
+     */
+    public interface Loader
+    {
+        String load()
+                throws SQLException;
+    }
+
+    /**
+     * Loads a JSON object on a cache miss.
+     */
+    public interface ObjectLoader
+    {
+        JSONObject load()
+                throws SQLException;
+    }
+
+    private interface ValueLoader
+    {
+        CachedValue load()
+                throws SQLException;
+    }
+
+    private static final class CachedValue
+    {
+        final String value;
+        // the value parsed, by the first getObject asking for it when it was loaded as text
+        volatile JSONObject object;
+        final long expiresAt;
+
+        CachedValue(String value, JSONObject object, long ttlMs)
+        {
+            this.value = value;
+            this.object = object;
+            this.expiresAt = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(ttlMs);
+        }
+    }
+
+    private final int maxSize;
+    private final Map<String, Long> ttls;
+    private final LinkedHashMap<List<Object>, CachedValue> entries;
+    private final Map<List<Object>, CompletableFuture<CachedValue>> inFlight = new ConcurrentHashMap<>();
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong coalesced = new AtomicLong();
+
+    public ResultCache()
+    {
+        this(DEFAULT_MAX_SIZE, new HashMap<>());
+    }
+
+    /**
+     * @param ttlOverrides time to live in milliseconds per kind, replacing the defaults; the key {@code default}
+     * changes the time to live of kinds without an entry
+     */
+    public ResultCache(int maxSize, Map<String, Long> ttlOverrides)
+    {
+        this.maxSize = maxSize;
+        this.ttls = new HashMap<>(defaultTtls);
+        this.ttls.putAll(ttlOverrides);
+        this.entries = new LinkedHashMap<List<Object>, CachedValue>(16, 0.75f, true)
+        {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<List<Object>, CachedValue> eldest)
+            {
+                return size() > ResultCache.this.maxSize;
+            }
+        };
+    }
+
+    /**
+     * Parse time to live overrides like {@code version=21600,check_active=5}, values in seconds.
+     */
+    public static Map<String, Long> parseTtls(String spec)
+    {
+        Map<String, Long> result = new HashMap<>();
+        if (spec == null || spec.trim().isEmpty()) {
+            return result;
+        }
+        for (String item : spec.split(",")) {
+            int eq = item.indexOf('=');
+            if (eq < 0) {
+                throw new IllegalArgumentException("invalid cache ttl '" + item + "', expected kind=seconds");
+            }
+            result.put(item.substring(0, eq).trim(), TimeUnit.SECONDS.toMillis(Long.parseLong(item.substring(eq + 1).trim())));
+        }
+        return result;
+    }
+
+    long ttl(String kind)
+    {
+        Long ttl = ttls.get(kind);
+        if (ttl == null) {
+            ttl = ttls.getOrDefault("default", DEFAULT_TTL_MS);
+        }
+        return ttl;
+    }
+
+    public String get(Target target, String kind, String[] param, Loader loader)
+            throws SQLException
+    {
+        return get(target, kind, param, () -> new CachedValue(loader.load(), null, ttl(kind))).value;
+    }
+
+    /**
+     * Like {@link #get} for the values that are JSON objects, sharing the entry with it. The object returned is
+     * the cached one and must not be modified.
+     */
+    public JSONObject getObject(Target target, String kind, String[] param, ObjectLoader loader)
+            throws SQLException
+    {
+        CachedValue entry = get(target, kind, param, () -> {
+            JSONObject object = loader.load();
+            return new CachedValue(object.toJSONString(), object, ttl(kind));
+        });
+        JSONObject object = entry.object;
+        if (object == null) {
+            try {
+                object = (JSONObject) new JSONParser().parse(entry.value);
+            }
+            catch (ParseException | ClassCastException e) {
+                throw new IllegalStateException("cached " + kind + " is no JSON object: " + entry.value, e);
+            }
+            // racing parsers store equal objects
+            entry.object = object;
+        }
+        return object;
+    }
+
+    private CachedValue get(Target target, String kind, String[] param, ValueLoader loader)
+            throws SQLException
+    {
+        List<Object> key = Arrays.asList(target, kind, Arrays.asList(param));
+        CachedValue entry = cached(key);
+        if (entry != null) {
+            hits.incrementAndGet();
+            return entry;
+        }
+
+        CompletableFuture<CachedValue> mine = new CompletableFuture<>();
+        CompletableFuture<CachedValue> running = inFlight.putIfAbsent(key, mine);
+        if (running != null) {
+            coalesced.incrementAndGet();
+            return await(running);
+        }
+        try {
+            // the previous owner may have finished between the lookup and taking ownership
+            entry = cached(key);
+            if (entry != null) {
+                hits.incrementAndGet();
+            }
+            else {
+                misses.incrementAndGet();
+                entry = loader.load();
+                if (ttl(kind) > 0) {
+                    synchronized (entries) {
+                        entries.put(key, entry);
+                    }
+                }
+            }
+            mine.complete(entry);
+            return entry;
+        }
+        catch (SQLException | RuntimeException e) {
+            mine.completeExceptionally(e);
+            throw e;
+        }
+        finally {
+            inFlight.remove(key, mine);
+        }
+    }
+
+    private CachedValue cached(List<Object> key)
+    {
+        synchronized (entries) {
+            CachedValue entry = entries.get(key);
+            if (entry == null) {
+                return null;
+            }
+            if (entry.expiresAt - System.nanoTime() <= 0) {
+                entries.remove(key);
+                return null;
+            }
+            return entry;
+        }
+    }
+
+    private static CachedValue await(CompletableFuture<CachedValue> future)
+            throws SQLException
+    {
+        try {
+            return future.get();
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("interrupted while waiting for a running query", e);
+        }
+        catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof SQLException) {
+                throw (SQLException) cause;
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new SQLException(cause);
+        }
+    }
+
+    public long getHits()
+    {
+        return hits.get();
+    }
+
+    public long getMisses()
+    {
+        return misses.get();
+    }
+
+    public long getCoalesced()
+    {
+        return coalesced.get();
+    }
+
+    public int size()
+    {
+        synchronized (entries) {
+            return entries.size();
+        }
+    }
+}
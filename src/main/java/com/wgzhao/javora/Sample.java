@@ -0,0 +1,88 @@
+package com.wgzhao.javora;
+
+/**
+ * One collected value: the Zabbix host and item key it belongs to, the value and when it was taken.
+ * A failed check carries the error message instead of a value.
+ */
+public class Sample
+{
+    private final String host;
+    private final String key;
+    private final String value;
+    private final long clock;
+    private final int ns;
+    private final boolean failed;
+
+    private Sample(String host, String key, String value, long clockMillis, boolean failed)
+    {
+        this.host = host;
+        this.key = key;
+        this.value = value;
+        this.clock = clockMillis / 1000;
+        this.ns = (int) (clockMillis % 1000) * 1_000_000;
+        this.failed = failed;
+    }
+
+    public static Sample of(String host, String key, String value, long clockMillis)
+    {
+        return new Sample(host, key, value, clockMillis, false);
+    }
+
+    public static Sample failure(String host, String key, String error, long clockMillis)
+    {
+        return new Sample(host, key, error, clockMillis, true);
+    }
+
+    public String getHost()
+    {
+        return host;
+    }
+
+    public String getKey()
+    {
+        return key;
+    }
+
+    public String getValue()
+    {
+        return value;
+    }
+
+    /**
+     * Seconds since the epoch.
+     */
+    public long getClock()
+    {
+        return clock;
+    }
+
+    /**
+     * Nanoseconds within {@link #getClock()}.
+     */
+    public int getNs()
+    {
+        return ns;
+    }
+
+    public boolean isFailed()
+    {
+        return failed;
+    }
+
+    /**
+     * The sample as a line of a {@code zabbix_sender --input-file}: {@code <host> <key> <value>}.
+     */
+    public String toSenderLine()
+    {
+        // the input file format has no way to carry line breaks
+        return quote(host) + " " + quote(key) + " " + quote(value.replace('\n', ' '));
+    }
+
+    private static String quote(String s)
+    {
+        if (!s.isEmpty() && s.indexOf(' ') < 0 && s.indexOf('"') < 0 && s.indexOf('\\') < 0) {
+            return s;
+        }
+        return "\"" + s.replace("\\", "\\\\").replace("\"", "\\\"") + "\"";
+    }
+}
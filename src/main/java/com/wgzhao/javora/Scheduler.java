@@ -0,0 +1,322 @@
+package com.wgzhao.javora;
+
+import org.json.simple.JSONObject;
+
+import java.io.Closeable;
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.DelayQueue;
+import java.util.concurrent.Delayed;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Runs the checks of an {@link Inventory} on their intervals for as long as the process lives, taking the cost
+ * of each check into account.
+ * <p>
+ * Monitor queries differ in cost by orders of magnitude, so the scheduler keeps a moving average of the observed
+ * execution time of every kind on every target. A check whose average exceeds the expensive threshold (or one
+ * known to be expensive before it ever ran) never runs while another expensive check is running on the same
+ * target; it is postponed until the running one is expected to finish. Each target also has a budget of queries
+ * running at once. The first run of every check is placed at a random offset within its interval so checks of
+ * hundreds of targets do not all fire in the same second, and later runs keep that offset.
+ */
+public class Scheduler
+        implements Closeable
+{
+    public static final long DEFAULT_EXPENSIVE_MS = 1000;
+
+    // kinds scanning large dictionary views, expensive until observed otherwise
+    private static final List<String> expensiveKinds = Arrays.asList("dbsize", "tablespace_abs", "lastapplarclog",
+            "all_tablespaces", "all_gauges");
+
+    private static final long MIN_POSTPONE_MS = 100;
+    // weight of the latest observation in the moving average of a kind's cost
+    private static final double COST_WEIGHT = 0.3;
+
+    private final Collector collector;
+    private final Consumer<Sample> sink;
+    private final int targetConcurrency;
+    private final long expensiveMs;
+    private final Semaphore permits;
+    private final ExecutorService workers;
+    private final DelayQueue<Job> queue = new DelayQueue<>();
+    private final Map<Target, TargetState> targets = new ConcurrentHashMap<>();
+    private final Map<List<Object>, Cost> costs = new ConcurrentHashMap<>();
+    private final Random random = new Random();
+    private final Thread dispatcher;
+    private volatile boolean running = true;
+
+    public Scheduler(Collector collector, Consumer<Sample> sink, int workers, int targetConcurrency, long expensiveMs)
+    {
+        this.collector = collector;
+        this.sink = sink;
+        this.targetConcurrency = targetConcurrency;
+        this.expensiveMs = expensiveMs;
+        this.permits = new Semaphore(workers, true);
+        this.workers = InventoryCollector.newExecutor(workers, "javora-scheduler-");
+        this.dispatcher = new Thread(this::dispatch, "javora-dispatcher");
+        this.dispatcher.setDaemon(true);
+    }
+
+    /**
+     * Add every check of the inventory, those without an interval of their own running every {@code defaultIntervalMs}.
+     */
+    public void schedule(Inventory inventory, long defaultIntervalMs)
+    {
+        if (defaultIntervalMs <= 0) {
+            throw new IllegalArgumentException("interval must be positive: " + defaultIntervalMs + "ms");
+        }
+        long now = System.nanoTime();
+        for (Inventory.Entry entry : inventory.getEntries()) {
+            TargetState state = targets.computeIfAbsent(entry.getTarget(), t -> new TargetState());
+            for (Inventory.Check check : entry.getChecks()) {
+                long interval = check.getIntervalSeconds() > 0 ? TimeUnit.SECONDS.toMillis(check.getIntervalSeconds()) : defaultIntervalMs;
+                long offset = (long) (random.nextDouble() * interval);
+                queue.add(new Job(entry, check, state, interval, now + TimeUnit.MILLISECONDS.toNanos(offset)));
+            }
+        }
+    }
+
+    public void start()
+    {
+        dispatcher.start();
+    }
+
+    public boolean isRunning()
+    {
+        return running;
+    }
+
+    /**
+     * Block until {@link #stop()} or {@link #close()} is called.
+     */
+    public void awaitTermination()
+            throws InterruptedException
+    {
+        dispatcher.join();
+    }
+
+    private void dispatch()
+    {
+        while (running) {
+            Job job;
+            try {
+                job = queue.take();
+            }
+            catch (InterruptedException e) {
+                break;
+            }
+            long delayMs = job.state.tryStart(job, estimateMs(job), isExpensive(job));
+            if (delayMs > 0) {
+                // a little jitter so postponed checks of one target do not all retry together
+                job.due = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(delayMs + random.nextInt((int) Math.max(MIN_POSTPONE_MS, delayMs / 4)));
+                queue.add(job);
+                continue;
+            }
+            try {
+                workers.execute(() -> run(job));
+            }
+            catch (RejectedExecutionException e) {
+                // closed meanwhile
+                break;
+            }
+        }
+    }
+
+    private void run(Job job)
+    {
+        permits.acquireUninterruptibly();
+        long start = System.nanoTime();
+        try {
+            String key = job.check.key();
+            try {
+                String value = collector.collect(job.entry.getTarget(), job.check.getKind(), job.check.getParam());
+                long collected = System.nanoTime();
+                sink.accept(Sample.of(job.entry.getHost(), key, value, System.currentTimeMillis()));
+                collector.recordOutput(job.entry.getTarget(), job.check.getKind(), System.nanoTime() - collected);
+            }
+            catch (SQLException | RuntimeException e) {
+                sink.accept(Sample.failure(job.entry.getHost(), key, String.valueOf(e.getMessage()), System.currentTimeMillis()));
+            }
+        }
+        finally {
+            long end = System.nanoTime();
+            permits.release();
+            cost(job).record(TimeUnit.NANOSECONDS.toMillis(end - start));
+            job.state.finish(job);
+            // keep the original offset; runs missed while the check was postponed or slow are skipped
+            long interval = Math.max(1, TimeUnit.MILLISECONDS.toNanos(job.intervalMs));
+            long missed = Math.max(0, (end - job.scheduled) / interval);
+            job.scheduled += (missed + 1) * interval;
+            job.due = job.scheduled;
+            if (running) {
+                queue.add(job);
+            }
+        }
+    }
+
+    private Cost cost(Job job)
+    {
+        return costs.computeIfAbsent(Arrays.asList(job.entry.getTarget(), job.check.getKind()), k -> new Cost());
+    }
+
+    private long estimateMs(Job job)
+    {
+        Cost cost = costs.get(Arrays.asList(job.entry.getTarget(), job.check.getKind()));
+        if (cost != null && cost.isObserved()) {
+            return cost.getAverageMs();
+        }
+        return expensiveKinds.contains(job.check.getKind()) ? expensiveMs : 0;
+    }
+
+    private boolean isExpensive(Job job)
+    {
+        Cost cost = costs.get(Arrays.asList(job.entry.getTarget(), job.check.getKind()));
+        if (cost != null && cost.isObserved()) {
+            return cost.getAverageMs() >= expensiveMs;
+        }
+        return expensiveKinds.contains(job.check.getKind());
+    }
+
+    /**
+     * Average observed milliseconds per kind, over all targets.
+     */
+    @SuppressWarnings("unchecked")
+    public JSONObject costs()
+    {
+        Map<String, double[]> sums = new TreeMap<>();
+        for (Map.Entry<List<Object>, Cost> entry : costs.entrySet()) {
+            double[] sum = sums.computeIfAbsent((String) entry.getKey().get(1), k -> new double[2]);
+            sum[0] += entry.getValue().getAverageMs();
+            sum[1]++;
+        }
+        JSONObject object = new JSONObject();
+        for (Map.Entry<String, double[]> entry : sums.entrySet()) {
+            object.put(entry.getKey(), Math.round(entry.getValue()[0] / entry.getValue()[1]));
+        }
+        return object;
+    }
+
+    /**
+     * Stop dispatching checks so {@link #awaitTermination()} returns; {@link #close()} releases the workers.
+     */
+    public void stop()
+    {
+        running = false;
+        dispatcher.interrupt();
+    }
+
+    @Override
+    public void close()
+    {
+        stop();
+        workers.shutdown();
+    }
+
+    /**
+     * Exponentially weighted moving average of the execution time of one kind on one target.
+     */
+    private static class Cost
+    {
+        private double averageMs = -1;
+
+        synchronized void record(long ms)
+        {
+            averageMs = averageMs < 0 ? ms : averageMs + COST_WEIGHT * (ms - averageMs);
+        }
+
+        synchronized boolean isObserved()
+        {
+            return averageMs >= 0;
+        }
+
+        synchronized long getAverageMs()
+        {
+            return Math.round(averageMs);
+        }
+    }
+
+    /**
+     * Queries currently running on one target.
+     */
+    private class TargetState
+    {
+        private int active;
+        private boolean expensiveRunning;
+        private long expensiveUntil;
+
+        /**
+         * Start {@code job} if the target has room for it and return 0, or return how many milliseconds to wait.
+         */
+        synchronized long tryStart(Job job, long estimateMs, boolean expensive)
+        {
+            long now = System.nanoTime();
+            if (active >= targetConcurrency) {
+                return MIN_POSTPONE_MS;
+            }
+            if (expensive && expensiveRunning) {
+                return Math.max(MIN_POSTPONE_MS, TimeUnit.NANOSECONDS.toMillis(expensiveUntil - now));
+            }
+            active++;
+            if (expensive) {
+                expensiveRunning = true;
+                expensiveUntil = now + TimeUnit.MILLISECONDS.toNanos(estimateMs);
+                job.expensive = true;
+            }
+            return 0;
+        }
+
+        synchronized void finish(Job job)
+        {
+            active--;
+            if (job.expensive) {
+                expensiveRunning = false;
+                job.expensive = false;
+            }
+        }
+    }
+
+    private static class Job
+            implements Delayed
+    {
+        final Inventory.Entry entry;
+        final Inventory.Check check;
+        final TargetState state;
+        final long intervalMs;
+        // nominal start of the current run, and when it may actually start
+        volatile long scheduled;
+        volatile long due;
+        boolean expensive;
+
+        Job(Inventory.Entry entry, Inventory.Check check, TargetState state, long intervalMs, long scheduled)
+        {
+            this.entry = entry;
+            this.check = check;
+            this.state = state;
+            this.intervalMs = intervalMs;
+            this.scheduled = scheduled;
+            this.due = scheduled;
+        }
+
+        @Override
+        public long getDelay(TimeUnit unit)
+        {
+            return unit.convert(due - System.nanoTime(), TimeUnit.NANOSECONDS);
+        }
+
+        @Override
+        public int compareTo(Delayed o)
+        {
+            return Long.compare(due, ((Job) o).due);
+        }
+    }
+}
@@ -0,0 +1,365 @@
+package com.wgzhao.javora;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TreeSet;
+import java.util.zip.CRC32;
+
+/**
+ * A local log of samples the Zabbix server could not take yet, kept in memory-mapped segment files of a fixed
+ * size in one directory, so appending is a copy into the page cache and nothing is lost when the process dies.
+ * <p>
+ * A record is its payload length, the CRC32 of the payload and the payload: clock, ns, host, key and value. A
+ * zero length ends the data of a segment; a record with a wrong checksum, torn by a crash of the machine, ends it
+ * too. The position of the oldest record not yet delivered is kept in a small mapped checkpoint file, written
+ * after each delivered batch, so a restart resends at most one batch.
+ * <p>
+ * Once the segments would take more than {@code maxBytes} the oldest one is deleted, delivered or not. Not
+ * thread safe, the {@link ZabbixSender} thread is its only user.
+ */
+public class Spool
+        implements Closeable
+{
+    public static final long DEFAULT_SEGMENT_BYTES = 16L * 1024 * 1024;
+    public static final long DEFAULT_MAX_BYTES = 256L * 1024 * 1024;
+
+    private static final String PREFIX = "spool-";
+    private static final String SUFFIX = ".log";
+    private static final String CHECKPOINT = "spool.checkpoint";
+    // length and checksum
+    private static final int HEADER = 8;
+
+    private final Path directory;
+    private final int segmentBytes;
+    private final int maxSegments;
+    private final TreeSet<Long> segments = new TreeSet<>();
+    private final MappedByteBuffer checkpoint;
+
+    private long writeSegment;
+    private MappedByteBuffer writeBuffer;
+    private long readSegment;
+    private int readPosition;
+    private ByteBuffer readBuffer;
+    // where the last peek ended, becomes the read position on commit
+    private long peekSegment;
+    private int peekPosition;
+    private ByteBuffer peekBuffer;
+
+    private long dropped;
+
+    public Spool(Path directory)
+            throws IOException
+    {
+        this(directory, DEFAULT_SEGMENT_BYTES, DEFAULT_MAX_BYTES);
+    }
+
+    public Spool(Path directory, long segmentBytes, long maxBytes)
+            throws IOException
+    {
+        if (segmentBytes <= HEADER || segmentBytes > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("invalid segment size " + segmentBytes);
+        }
+        this.directory = directory;
+        this.segmentBytes = (int) segmentBytes;
+        this.maxSegments = (int) Math.max(2, maxBytes / segmentBytes);
+        Files.createDirectories(directory);
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, PREFIX + "*" + SUFFIX)) {
+            for (Path file : files) {
+                String name = file.getFileName().toString();
+                try {
+                    segments.add(Long.parseLong(name.substring(PREFIX.length(), name.length() - SUFFIX.length())));
+                }
+                catch (NumberFormatException e) {
+                    // not ours
+                }
+            }
+        }
+        if (segments.isEmpty()) {
+            segments.add(1L);
+        }
+
+        writeSegment = segments.last();
+        writeBuffer = map(writeSegment);
+        ((Buffer) writeBuffer).position(end(writeBuffer, 0));
+
+        checkpoint = map(directory.resolve(CHECKPOINT), 16);
+        long savedSegment = checkpoint.getLong(0);
+        int savedPosition = checkpoint.getInt(8);
+        if (checkpoint.getInt(12) == checksum(savedSegment, savedPosition) && segments.contains(savedSegment)) {
+            readSegment = savedSegment;
+            readPosition = savedPosition;
+        }
+        else {
+            // lost or older than every segment left, start over from the oldest
+            readSegment = segments.first();
+            readPosition = 0;
+        }
+        readBuffer = readSegment == writeSegment ? shared() : map(readSegment);
+        // a crash may have torn records the checkpoint was already written past, resume at the end of the data
+        readPosition = Math.min(readPosition, end(readBuffer, 0));
+        peekSegment = readSegment;
+        peekPosition = readPosition;
+        peekBuffer = readBuffer;
+    }
+
+    /**
+     * Whether every appended sample has been delivered.
+     */
+    public boolean isEmpty()
+    {
+        return readSegment == writeSegment && readPosition == writeBuffer.position();
+    }
+
+    /**
+     * Append samples after the ones already spooled. A sample too large for a segment is dropped.
+     */
+    public void append(List<Sample> samples)
+            throws IOException
+    {
+        for (Sample sample : samples) {
+            byte[] host = sample.getHost().getBytes(StandardCharsets.UTF_8);
+            byte[] key = sample.getKey().getBytes(StandardCharsets.UTF_8);
+            byte[] value = sample.getValue().getBytes(StandardCharsets.UTF_8);
+            int length = 8 + 4 + 4 + host.length + 4 + key.length + 4 + value.length;
+            if (HEADER + length > segmentBytes) {
+                dropped++;
+                continue;
+            }
+            if (writeBuffer.remaining() < HEADER + length) {
+                roll();
+            }
+            int start = writeBuffer.position();
+            ((Buffer) writeBuffer).position(start + HEADER);
+            writeBuffer.putLong(sample.getClock());
+            writeBuffer.putInt(sample.getNs());
+            put(writeBuffer, host);
+            put(writeBuffer, key);
+            put(writeBuffer, value);
+            writeBuffer.putInt(start + 4, crc(writeBuffer, start + HEADER, length));
+            // records left after a torn one from before a crash must not show up behind this one
+            if (writeBuffer.remaining() >= 4) {
+                writeBuffer.putInt(writeBuffer.position(), 0);
+            }
+            // the length last, a record is visible only once complete
+            writeBuffer.putInt(start, length);
+        }
+    }
+
+    /**
+     * Read up to {@code max} of the oldest samples not yet delivered, without removing them.
+     */
+    public List<Sample> peek(int max)
+            throws IOException
+    {
+        List<Sample> samples = new ArrayList<>(max);
+        long segment = readSegment;
+        int position = readPosition;
+        ByteBuffer buffer = readBuffer;
+        while (samples.size() < max) {
+            int length = valid(buffer, position);
+            if (length < 0) {
+                Long next = segments.higher(segment);
+                if (next == null) {
+                    break;
+                }
+                segment = next;
+                position = 0;
+                buffer = next == writeSegment ? shared() : map(next);
+                continue;
+            }
+            samples.add(read(buffer, position + HEADER));
+            position += HEADER + length;
+        }
+        peekSegment = segment;
+        peekPosition = position;
+        peekBuffer = buffer;
+        return samples;
+    }
+
+    /**
+     * Remove the samples returned by the last {@link #peek(int)}, deleting the segments read to the end.
+     */
+    public void commit()
+            throws IOException
+    {
+        readSegment = peekSegment;
+        readPosition = peekPosition;
+        readBuffer = peekBuffer;
+        checkpoint.putLong(0, readSegment);
+        checkpoint.putInt(8, readPosition);
+        checkpoint.putInt(12, checksum(readSegment, readPosition));
+        while (segments.first() < readSegment) {
+            Files.deleteIfExists(segment(segments.pollFirst()));
+        }
+    }
+
+    /**
+     * Samples dropped to stay within the size limit, or too large to spool.
+     */
+    public long getDropped()
+    {
+        return dropped;
+    }
+
+    /**
+     * Bytes taken by the segment files.
+     */
+    public long getBytes()
+    {
+        return (long) segments.size() * segmentBytes;
+    }
+
+    private void roll()
+            throws IOException
+    {
+        writeBuffer.force();
+        writeSegment++;
+        segments.add(writeSegment);
+        writeBuffer = map(writeSegment);
+        while (segments.size() > maxSegments) {
+            dropOldest();
+        }
+    }
+
+    // the reader moves to the next segment, the samples it had not delivered are lost
+    private void dropOldest()
+            throws IOException
+    {
+        long oldest = segments.pollFirst();
+        if (oldest == readSegment) {
+            int position = readPosition;
+            for (int length = valid(readBuffer, position); length >= 0; length = valid(readBuffer, position)) {
+                dropped++;
+                position += HEADER + length;
+            }
+            readSegment = segments.first();
+            readPosition = 0;
+            readBuffer = readSegment == writeSegment ? shared() : map(readSegment);
+            peekSegment = readSegment;
+            peekPosition = readPosition;
+            peekBuffer = readBuffer;
+            commit();
+        }
+        Files.deleteIfExists(segment(oldest));
+    }
+
+    // length of the record at position, -1 at the end of the data
+    private int valid(ByteBuffer buffer, int position)
+    {
+        if (position + HEADER > buffer.capacity()) {
+            return -1;
+        }
+        int length = buffer.getInt(position);
+        if (length <= 0 || position + HEADER + length > buffer.capacity()) {
+            return -1;
+        }
+        return buffer.getInt(position + 4) == crc(buffer, position + HEADER, length) ? length : -1;
+    }
+
+    private static int crc(ByteBuffer buffer, int position, int length)
+    {
+        ByteBuffer payload = buffer.duplicate();
+        ((Buffer) payload).limit(position + length);
+        ((Buffer) payload).position(position);
+        CRC32 crc = new CRC32();
+        crc.update(payload);
+        return (int) crc.getValue();
+    }
+
+    private int end(ByteBuffer buffer, int position)
+    {
+        for (int length = valid(buffer, position); length >= 0; length = valid(buffer, position)) {
+            position += HEADER + length;
+        }
+        return position;
+    }
+
+    private static Sample read(ByteBuffer buffer, int position)
+    {
+        long clock = buffer.getLong(position);
+        int ns = buffer.getInt(position + 8);
+        position += 12;
+        String host = get(buffer, position);
+        position += 4 + buffer.getInt(position);
+        String key = get(buffer, position);
+        position += 4 + buffer.getInt(position);
+        String value = get(buffer, position);
+        return Sample.of(host, key, value, clock * 1000 + ns / 1_000_000);
+    }
+
+    private static void put(ByteBuffer buffer, byte[] bytes)
+    {
+        buffer.putInt(bytes.length);
+        buffer.put(bytes);
+    }
+
+    private static String get(ByteBuffer buffer, int position)
+    {
+        byte[] bytes = new byte[buffer.getInt(position)];
+        ByteBuffer source = buffer.duplicate();
+        ((Buffer) source).position(position + 4);
+        source.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static int checksum(long segment, int position)
+    {
+        CRC32 crc = new CRC32();
+        for (int shift = 0; shift < 64; shift += 8) {
+            crc.update((int) (segment >>> shift));
+        }
+        for (int shift = 0; shift < 32; shift += 8) {
+            crc.update(position >>> shift);
+        }
+        return (int) crc.getValue();
+    }
+
+    // the segment being written, seen through a buffer of its own; covariant overrides of ByteBuffer methods
+    // (JDK 9 and later) are avoided throughout, the jar runs on Java 8
+    private ByteBuffer shared()
+    {
+        return ((ByteBuffer) writeBuffer).duplicate();
+    }
+
+    private Path segment(long number)
+    {
+        return directory.resolve(String.format("%s%020d%s", PREFIX, number, SUFFIX));
+    }
+
+    private MappedByteBuffer map(long number)
+            throws IOException
+    {
+        return map(segment(number), segmentBytes);
+    }
+
+    // the mapping outlives the channel; a new file is extended with zeros, which read as the end of the data
+    private static MappedByteBuffer map(Path file, int size)
+            throws IOException
+    {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE)) {
+            return channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+        }
+    }
+
+    /**
+     * Write the mapped pages to disk.
+     */
+    @Override
+    public void close()
+    {
+        writeBuffer.force();
+        checkpoint.force();
+    }
+}
@@ -0,0 +1,66 @@
+package com.wgzhao.javora;
+
+import java.util.Objects;
+
+/**
+ * The Oracle database a check runs against, identified by its JDBC url and logon credentials. The password is part of
+ * the identity so that pooled connections and cached results are only ever shared by requests that could log on.
+ */
+public class Target
+{
+    private final String url;
+    private final String username;
+    private final String password;
+
+    public Target(String url, String username, String password)
+    {
+        this.url = url;
+        this.username = username;
+        this.password = password;
+    }
+
+    public static Target of(String host, String port, String database, String username, String password)
+    {
+        return new Target("jdbc:oracle:thin:@" + host + ":" + port + "/" + database, username, password);
+    }
+
+    public String getUrl()
+    {
+        return url;
+    }
+
+    public String getUsername()
+    {
+        return username;
+    }
+
+    public String getPassword()
+    {
+        return password;
+    }
+
+    @Override
+    public boolean equals(Object o)
+    {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof Target)) {
+            return false;
+        }
+        Target target = (Target) o;
+        return url.equals(target.url) && Objects.equals(username, target.username) && Objects.equals(password, target.password);
+    }
+
+    @Override
+    public int hashCode()
+    {
+        return Objects.hash(url, username, password);
+    }
+
+    @Override
+    public String toString()
+    {
+        return username + "@" + url;
+    }
+}
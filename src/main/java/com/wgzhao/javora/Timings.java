@@ -0,0 +1,60 @@
+package com.wgzhao.javora;
+
+import org.json.simple.JSONObject;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Where the time of one kind on one target goes: running the statement, fetching and formatting its rows, and
+ * handing the value over, to the Zabbix server, the sender queue or a scrape.
+ */
+public class Timings
+{
+    static final String EXECUTE = "execute";
+    static final String FETCH = "fetch";
+    static final String OUTPUT = "output";
+
+    private final LatencyHistogram execute = new LatencyHistogram();
+    private final LatencyHistogram fetch = new LatencyHistogram();
+    private final LatencyHistogram output = new LatencyHistogram();
+    private final AtomicLong errors = new AtomicLong();
+
+    public LatencyHistogram getExecute()
+    {
+        return execute;
+    }
+
+    public LatencyHistogram getFetch()
+    {
+        return fetch;
+    }
+
+    public LatencyHistogram getOutput()
+    {
+        return output;
+    }
+
+    /**
+     * Statements of the kind that failed.
+     */
+    public long getErrors()
+    {
+        return errors.get();
+    }
+
+    void error()
+    {
+        errors.incrementAndGet();
+    }
+
+    @SuppressWarnings("unchecked")
+    public JSONObject toJson()
+    {
+        JSONObject object = new JSONObject();
+        object.put(EXECUTE, execute.toJson());
+        object.put(FETCH, fetch.toJson());
+        object.put(OUTPUT, output.toJson());
+        object.put("errors", errors.get());
+        return object;
+    }
+}
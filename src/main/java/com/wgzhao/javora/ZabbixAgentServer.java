@@ -0,0 +1,420 @@
+package com.wgzhao.javora;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A long-running process answering Zabbix passive checks, so items are served by a warm JVM
+ * instead of one {@code java -jar} per value.
+ * <p>
+ * Two key forms are understood:
+ * <pre>
+ *     javora[kind,param]                                     -- against the target given on the command line
+ *     javora[username,password,host,port,database,kind,param] -- the form used by the template external checks
+ * </pre>
+ * {@code agent.ping} is answered as well so the host availability icon works. Connections are pooled per
+ * target by the {@link Collector}, so a key costs one round trip instead of a logon.
+ * <p>
+ * Like the {@code Server=} list of the Zabbix agent, an allow list limits who may connect; other peers are
+ * disconnected without an answer. The second key form makes javora log on to whatever database the key names, so
+ * it is refused unless a limit of such databases is given, and keys naming further databases are refused.
+ */
+public class ZabbixAgentServer
+        implements Closeable
+{
+    static final String ITEM_KEY = "javora";
+
+    private static final int SOCKET_TIMEOUT_MS = 30_000;
+
+    private final Collector collector;
+    private final Target defaultTarget;
+    private final List<Peer> allowed;
+    private final int maxInlineTargets;
+    private final Set<Target> inlineTargets = ConcurrentHashMap.newKeySet();
+    private final ServerSocket serverSocket;
+    private final ExecutorService workers;
+    private volatile boolean running = true;
+
+    public ZabbixAgentServer(Collector collector, Target defaultTarget, InetSocketAddress listen, int threads)
+            throws IOException
+    {
+        this(collector, defaultTarget, listen, threads, Collections.emptyList(), 0);
+    }
+
+    /**
+     * @param allow addresses, host names or {@code address/prefix} networks peers must match, empty to accept
+     * every peer that can reach {@code listen}
+     * @param maxInlineTargets databases the key form with host and credentials may name, 0 to refuse that form
+     */
+    public ZabbixAgentServer(Collector collector, Target defaultTarget, InetSocketAddress listen, int threads,
+            List<String> allow, int maxInlineTargets)
+            throws IOException
+    {
+        this.collector = collector;
+        this.defaultTarget = defaultTarget;
+        this.allowed = new ArrayList<>();
+        for (String spec : allow) {
+            allowed.addAll(Peer.parse(spec));
+        }
+        this.maxInlineTargets = maxInlineTargets;
+        this.serverSocket = new ServerSocket();
+        this.serverSocket.setReuseAddress(true);
+        this.serverSocket.bind(listen);
+        AtomicInteger counter = new AtomicInteger();
+        this.workers = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<>(),
+                r -> {
+                    Thread t = new Thread(r, "javora-agent-" + counter.incrementAndGet());
+                    t.setDaemon(true);
+                    return t;
+                });
+    }
+
+    InetSocketAddress getAddress()
+    {
+        return (InetSocketAddress) serverSocket.getLocalSocketAddress();
+    }
+
+    /**
+     * Accept connections until {@link #stop()} or {@link #close()} is called.
+     */
+    public void serve()
+    {
+        System.out.println("javora agent listening on " + serverSocket.getLocalSocketAddress());
+        while (running) {
+            Socket socket;
+            try {
+                socket = serverSocket.accept();
+            }
+            catch (IOException e) {
+                if (running) {
+                    System.err.println("accept failed: " + e.getMessage());
+                }
+                continue;
+            }
+            if (!isAllowed(socket.getInetAddress())) {
+                System.err.println("connection from " + socket.getInetAddress().getHostAddress() + " is not allowed");
+                try {
+                    socket.close();
+                }
+                catch (IOException ignored) {
+                    // nothing was sent
+                }
+                continue;
+            }
+            workers.execute(() -> handle(socket));
+        }
+    }
+
+    private void handle(Socket socket)
+    {
+        try (Socket s = socket) {
+            s.setSoTimeout(SOCKET_TIMEOUT_MS);
+            s.setTcpNoDelay(true);
+            Request request = request(ZabbixProtocol.read(s.getInputStream()));
+            String value = respond(request);
+            long start = System.nanoTime();
+            ZabbixProtocol.write(s.getOutputStream(), value);
+            if (request.kind != null) {
+                collector.recordOutput(request.target, request.kind, System.nanoTime() - start);
+            }
+        }
+        catch (SocketException ignored) {
+            // peer went away, nothing to answer
+        }
+        catch (IOException e) {
+            System.err.println("request from " + socket.getRemoteSocketAddress() + " failed: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Map an item key onto a check and return the value to send back.
+     */
+    String respond(String key)
+    {
+        return respond(request(key));
+    }
+
+    // an item key resolved to a check, or the reason it can not be answered
+    private static final class Request
+    {
+        Target target;
+        String kind;
+        String[] args;
+        String value;
+    }
+
+    private Request request(String key)
+    {
+        Request request = new Request();
+        String name = keyName(key);
+        if ("agent.ping".equals(name)) {
+            request.value = "1";
+            return request;
+        }
+        if (!ITEM_KEY.equals(name)) {
+            request.value = notSupported("Unsupported item key.");
+            return request;
+        }
+
+        List<String> params;
+        try {
+            params = keyParams(key);
+        }
+        catch (IllegalArgumentException e) {
+            request.value = notSupported(e.getMessage());
+            return request;
+        }
+
+        Target target;
+        String kind;
+        String[] args;
+        if (!params.isEmpty() && Collector.isKind(params.get(0))) {
+            target = defaultTarget;
+            kind = params.get(0);
+            args = params.subList(1, params.size()).toArray(new String[0]);
+        }
+        else if (params.size() >= 6) {
+            if (maxInlineTargets <= 0) {
+                request.value = notSupported("Keys naming a database are not allowed.");
+                return request;
+            }
+            target = Target.of(params.get(2), params.get(3), params.get(4), params.get(0), params.get(1));
+            kind = params.get(5);
+            args = params.subList(6, params.size()).toArray(new String[0]);
+            // a slot is only taken by a key that is otherwise valid
+            if (Collector.isKind(kind) && !inlineTargets.contains(target)) {
+                synchronized (inlineTargets) {
+                    if (inlineTargets.size() >= maxInlineTargets && !inlineTargets.contains(target)) {
+                        request.value = notSupported("More than " + maxInlineTargets + " databases named by keys.");
+                        return request;
+                    }
+                    inlineTargets.add(target);
+                }
+            }
+        }
+        else if (!params.isEmpty() && !params.get(0).isEmpty()) {
+            request.value = notSupported("no such kind: " + params.get(0));
+            return request;
+        }
+        else {
+            request.value = notSupported("Invalid number of parameters.");
+            return request;
+        }
+        if (!Collector.isKind(kind)) {
+            request.value = notSupported("no such kind: " + kind);
+            return request;
+        }
+        if (Collector.needParam(kind) && (args.length < 1 || args[0].isEmpty())) {
+            request.value = notSupported("the kind " + kind + " need a argument");
+            return request;
+        }
+        request.target = target;
+        request.kind = kind;
+        request.args = args;
+        return request;
+    }
+
+    private String respond(Request request)
+    {
+        if (request.value != null) {
+            return request.value;
+        }
+        Target target = request.target;
+        String kind = request.kind;
+        String[] args = request.args;
+        try {
+            String result = collector.collect(target, kind, args);
+            if (result.isEmpty()) {
+                return notSupported("no data returned for kind " + kind);
+            }
+            return result;
+        }
+        catch (SQLException | RuntimeException e) {
+            return notSupported(e.getMessage());
+        }
+    }
+
+    private static String notSupported(String message)
+    {
+        return ZabbixProtocol.NOT_SUPPORTED + '\0' + message;
+    }
+
+    boolean isAllowed(InetAddress address)
+    {
+        if (allowed.isEmpty()) {
+            return true;
+        }
+        for (Peer peer : allowed) {
+            if (peer.matches(address)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // an address or network peers may connect from
+    static final class Peer
+    {
+        private final byte[] address;
+        private final int prefix;
+
+        private Peer(byte[] address, int prefix)
+        {
+            this.address = address;
+            this.prefix = prefix;
+        }
+
+        /**
+         * Parse an address, a host name (every address it resolves to) or {@code address/prefix}.
+         */
+        static List<Peer> parse(String spec)
+                throws IOException
+        {
+            String trimmed = spec.trim();
+            int slash = trimmed.indexOf('/');
+            List<Peer> peers = new ArrayList<>();
+            if (slash >= 0) {
+                byte[] address = InetAddress.getByName(trimmed.substring(0, slash)).getAddress();
+                int prefix = Integer.parseInt(trimmed.substring(slash + 1));
+                if (prefix < 0 || prefix > address.length * 8) {
+                    throw new IllegalArgumentException("invalid prefix length in " + spec);
+                }
+                peers.add(new Peer(address, prefix));
+                return peers;
+            }
+            for (InetAddress address : InetAddress.getAllByName(trimmed)) {
+                peers.add(new Peer(address.getAddress(), address.getAddress().length * 8));
+            }
+            return peers;
+        }
+
+        boolean matches(InetAddress peer)
+        {
+            byte[] other = peer.getAddress();
+            if (other.length != address.length) {
+                // an IPv4 peer seen through an IPv6 socket, ::ffff:a.b.c.d
+                if (other.length == 16 && address.length == 4 && isMappedIpv4(other)) {
+                    other = Arrays.copyOfRange(other, 12, 16);
+                }
+                else {
+                    return false;
+                }
+            }
+            int bits = prefix;
+            for (int i = 0; bits > 0; i++, bits -= 8) {
+                int mask = bits >= 8 ? 0xff : (0xff << (8 - bits)) & 0xff;
+                if ((address[i] & mask) != (other[i] & mask)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private static boolean isMappedIpv4(byte[] address)
+        {
+            for (int i = 0; i < 10; i++) {
+                if (address[i] != 0) {
+                    return false;
+                }
+            }
+            return address[10] == (byte) 0xff && address[11] == (byte) 0xff;
+        }
+    }
+
+    static String keyName(String key)
+    {
+        int bracket = key.indexOf('[');
+        return (bracket < 0 ? key : key.substring(0, bracket)).trim();
+    }
+
+    /**
+     * Split the parameters of an item key like {@code javora[a,"b,c",d]}. Quoted parameters may contain
+     * commas and escaped quotes, the same way the Zabbix agent parses them.
+     */
+    static List<String> keyParams(String key)
+    {
+        List<String> params = new ArrayList<>();
+        int open = key.indexOf('[');
+        if (open < 0) {
+            return params;
+        }
+        if (!key.endsWith("]")) {
+            throw new IllegalArgumentException("Invalid item key format.");
+        }
+        String body = key.substring(open + 1, key.length() - 1);
+        StringBuilder current = new StringBuilder();
+        int i = 0;
+        while (i <= body.length()) {
+            // skip leading spaces of a parameter
+            while (i < body.length() && body.charAt(i) == ' ') {
+                i++;
+            }
+            if (i < body.length() && body.charAt(i) == '"') {
+                i++;
+                while (i < body.length() && body.charAt(i) != '"') {
+                    if (body.charAt(i) == '\\' && i + 1 < body.length() && body.charAt(i + 1) == '"') {
+                        i++;
+                    }
+                    current.append(body.charAt(i++));
+                }
+                if (i >= body.length()) {
+                    throw new IllegalArgumentException("Invalid item key format: unterminated quote.");
+                }
+                i++;
+                while (i < body.length() && body.charAt(i) == ' ') {
+                    i++;
+                }
+                if (i < body.length() && body.charAt(i) != ',') {
+                    throw new IllegalArgumentException("Invalid item key format.");
+                }
+            }
+            else {
+                while (i < body.length() && body.charAt(i) != ',') {
+                    current.append(body.charAt(i++));
+                }
+            }
+            params.add(current.toString().trim());
+            current.setLength(0);
+            i++;
+        }
+        return params;
+    }
+
+    /**
+     * Stop accepting connections so {@link #serve()} returns; {@link #close()} releases the rest.
+     */
+    public synchronized void stop()
+            throws IOException
+    {
+        if (running) {
+            running = false;
+            serverSocket.close();
+        }
+    }
+
+    @Override
+    public void close()
+            throws IOException
+    {
+        stop();
+        workers.shutdown();
+        collector.close();
+    }
+}
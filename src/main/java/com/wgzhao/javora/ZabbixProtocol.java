@@ -0,0 +1,142 @@
+package com.wgzhao.javora;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Framing of the Zabbix wire protocol shared by agent, sender and trapper:
+ * <pre>
+ *     "ZBXD" | flags (1 byte) | data length (4 bytes LE) | reserved (4 bytes LE) | data
+ * </pre>
+ * Passive checks from old servers may also come without header, as a plain key terminated by a newline.
+ */
+final class ZabbixProtocol
+{
+    static final byte[] HEADER = {'Z', 'B', 'X', 'D'};
+    static final byte FLAG_ZABBIX = 0x01;
+    static final byte FLAG_COMPRESSED = 0x02;
+    static final byte FLAG_LARGE = 0x04;
+
+    static final String NOT_SUPPORTED = "ZBX_NOTSUPPORTED";
+
+    // the same limit the zabbix server applies to a single packet
+    static final int MAX_DATA_LENGTH = 128 * 1024 * 1024;
+
+    private ZabbixProtocol()
+    {
+    }
+
+    static void write(OutputStream out, String data)
+            throws IOException
+    {
+        byte[] payload = data.getBytes(StandardCharsets.UTF_8);
+        byte[] header = new byte[13];
+        System.arraycopy(HEADER, 0, header, 0, HEADER.length);
+        header[4] = FLAG_ZABBIX;
+        putIntLE(header, 5, payload.length);
+        out.write(header);
+        out.write(payload);
+        out.flush();
+    }
+
+    static String read(InputStream in)
+            throws IOException
+    {
+        DataInputStream input = new DataInputStream(in);
+        byte[] magic = new byte[4];
+        int n = 0;
+        while (n < magic.length) {
+            int b = input.read();
+            if (b < 0) {
+                if (n == 0) {
+                    throw new EOFException("connection closed before any data");
+                }
+                break;
+            }
+            magic[n++] = (byte) b;
+            if (b != HEADER[n - 1]) {
+                // no ZBXD header: legacy plain text request terminated by newline
+                return readLine(input, magic, n);
+            }
+        }
+        if (n < magic.length) {
+            return new String(magic, 0, n, StandardCharsets.UTF_8);
+        }
+
+        byte flags = input.readByte();
+        if ((flags & FLAG_COMPRESSED) != 0) {
+            throw new IOException("compressed packets are not supported");
+        }
+        long length;
+        if ((flags & FLAG_LARGE) != 0) {
+            byte[] len = new byte[16];
+            input.readFully(len);
+            length = getLongLE(len, 0);
+        }
+        else {
+            byte[] len = new byte[8];
+            input.readFully(len);
+            length = getIntLE(len, 0) & 0xffffffffL;
+        }
+        if (length > MAX_DATA_LENGTH) {
+            throw new IOException("packet too large: " + length + " bytes");
+        }
+        byte[] data = new byte[(int) length];
+        input.readFully(data);
+        return new String(data, StandardCharsets.UTF_8);
+    }
+
+    private static String readLine(InputStream in, byte[] prefix, int prefixLength)
+            throws IOException
+    {
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        buffer.write(prefix, 0, prefixLength);
+        if (prefix[prefixLength - 1] == '\n') {
+            return trimLine(buffer);
+        }
+        int b;
+        while ((b = in.read()) >= 0 && b != '\n') {
+            if (buffer.size() >= MAX_DATA_LENGTH) {
+                throw new IOException("request line too long");
+            }
+            buffer.write(b);
+        }
+        return trimLine(buffer);
+    }
+
+    private static String trimLine(ByteArrayOutputStream buffer)
+    {
+        String line = new String(buffer.toByteArray(), StandardCharsets.UTF_8);
+        int end = line.length();
+        while (end > 0 && (line.charAt(end - 1) == '\n' || line.charAt(end - 1) == '\r')) {
+            end--;
+        }
+        return line.substring(0, end);
+    }
+
+    static void putIntLE(byte[] buf, int offset, int value)
+    {
+        buf[offset] = (byte) value;
+        buf[offset + 1] = (byte) (value >>> 8);
+        buf[offset + 2] = (byte) (value >>> 16);
+        buf[offset + 3] = (byte) (value >>> 24);
+    }
+
+    static int getIntLE(byte[] buf, int offset)
+    {
+        return (buf[offset] & 0xff)
+                | (buf[offset + 1] & 0xff) << 8
+                | (buf[offset + 2] & 0xff) << 16
+                | (buf[offset + 3] & 0xff) << 24;
+    }
+
+    static long getLongLE(byte[] buf, int offset)
+    {
+        return (getIntLE(buf, offset) & 0xffffffffL) | ((long) getIntLE(buf, offset + 4)) << 32;
+    }
+}
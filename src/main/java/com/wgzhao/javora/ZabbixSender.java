@@ -0,0 +1,345 @@
+package com.wgzhao.javora;
+
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+import org.json.simple.parser.JSONParser;
+import org.json.simple.parser.ParseException;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Pushes samples to a Zabbix server or proxy with the sender (trapper) protocol, many values per request.
+ * <p>
+ * {@link #offer(Sample)} only queues the sample; a background thread sends a batch once it holds
+ * {@code batchSize} values or the oldest queued value waited {@code flushIntervalMs}, whichever comes first.
+ * Every value keeps the clock it was collected at. When the queue is full new samples are dropped rather than
+ * blocking the collection threads.
+ * <p>
+ * With a {@link Spool}, a batch the server could not be reached for is appended to it instead of being dropped,
+ * and so is every batch after it until the spool is replayed, oldest first and {@code batchSize} values per
+ * request, once the server answers again. Sending is retried after one second, doubling up to a minute. A batch
+ * the server answers {@code failed} to is not retried, its values count as rejected.
+ */
+public class ZabbixSender
+        implements Closeable
+{
+    public static final int DEFAULT_PORT = 10051;
+    public static final int DEFAULT_BATCH_SIZE = 250;
+    public static final long DEFAULT_FLUSH_INTERVAL_MS = 1000;
+    public static final int DEFAULT_QUEUE_CAPACITY = 100_000;
+
+    private static final int CONNECT_TIMEOUT_MS = 5000;
+    private static final int READ_TIMEOUT_MS = 30_000;
+    private static final Pattern FAILED = Pattern.compile("failed: (\\d+)");
+    private static final long MIN_RETRY_MS = 1000;
+    private static final long MAX_RETRY_MS = 60_000;
+    // spooled batches sent before looking at the queue again
+    private static final int REPLAY_BATCHES = 10;
+
+    private final InetSocketAddress server;
+    private final int batchSize;
+    private final long flushIntervalMs;
+    private final BlockingQueue<Sample> queue;
+    private final Spool spool;
+    private final Thread flusher;
+    private volatile boolean running = true;
+    private long retryDelayMs;
+    private long retryAt;
+
+    private final AtomicLong sent = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+    private final AtomicLong batches = new AtomicLong();
+    private final AtomicLong sendErrors = new AtomicLong();
+    private final AtomicLong spooled = new AtomicLong();
+
+    // the server answered but did not take the batch, sending it again would not change that
+    private static final class RefusedException
+            extends IOException
+    {
+        RefusedException(String message)
+        {
+            super(message);
+        }
+    }
+
+    public ZabbixSender(InetSocketAddress server)
+    {
+        this(server, DEFAULT_BATCH_SIZE, DEFAULT_FLUSH_INTERVAL_MS, DEFAULT_QUEUE_CAPACITY);
+    }
+
+    public ZabbixSender(InetSocketAddress server, int batchSize, long flushIntervalMs, int queueCapacity)
+    {
+        this(server, batchSize, flushIntervalMs, queueCapacity, null);
+    }
+
+    /**
+     * @param spool where batches wait while the server cannot be reached, {@code null} to drop them; closed with
+     * the sender
+     */
+    public ZabbixSender(InetSocketAddress server, int batchSize, long flushIntervalMs, int queueCapacity, Spool spool)
+    {
+        this.server = server;
+        this.spool = spool;
+        this.batchSize = batchSize;
+        this.flushIntervalMs = flushIntervalMs;
+        this.queue = new ArrayBlockingQueue<>(queueCapacity);
+        this.flusher = new Thread(this::run, "javora-sender");
+        this.flusher.setDaemon(true);
+        this.flusher.start();
+    }
+
+    /**
+     * Parse {@code host[:port]}, the port defaulting to the trapper port 10051.
+     */
+    public static InetSocketAddress address(String spec)
+    {
+        int colon = spec.lastIndexOf(':');
+        if (colon < 0) {
+            return new InetSocketAddress(spec, DEFAULT_PORT);
+        }
+        return new InetSocketAddress(spec.substring(0, colon), Integer.parseInt(spec.substring(colon + 1)));
+    }
+
+    /**
+     * Queue a sample for sending, returning false if the queue is full and the sample was dropped.
+     */
+    public boolean offer(Sample sample)
+    {
+        if (queue.offer(sample)) {
+            return true;
+        }
+        dropped.incrementAndGet();
+        return false;
+    }
+
+    private void run()
+    {
+        List<Sample> batch = new ArrayList<>(batchSize);
+        while (running || !queue.isEmpty()) {
+            try {
+                Sample first = queue.poll(flushIntervalMs, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    replay();
+                    continue;
+                }
+                batch.add(first);
+                long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(flushIntervalMs);
+                while (batch.size() < batchSize) {
+                    if (queue.drainTo(batch, batchSize - batch.size()) > 0) {
+                        continue;
+                    }
+                    long remaining = deadline - System.nanoTime();
+                    if (remaining <= 0 || !running) {
+                        break;
+                    }
+                    Sample next = queue.poll(remaining, TimeUnit.NANOSECONDS);
+                    if (next == null) {
+                        break;
+                    }
+                    batch.add(next);
+                }
+                deliver(batch);
+                replay();
+            }
+            catch (InterruptedException e) {
+                // close() wants the rest flushed, keep going until the queue is empty
+                running = false;
+            }
+            finally {
+                batch.clear();
+            }
+        }
+    }
+
+    // behind the spooled values if there are any, so the server gets the values in the order they were taken
+    private void deliver(List<Sample> batch)
+    {
+        if (spool == null) {
+            try {
+                send(batch);
+            }
+            catch (IOException e) {
+                dropped.addAndGet(batch.size());
+            }
+            return;
+        }
+        if (spool.isEmpty() && System.currentTimeMillis() >= retryAt) {
+            try {
+                send(batch);
+                return;
+            }
+            catch (IOException e) {
+                // spooled below
+            }
+        }
+        try {
+            spool.append(batch);
+            spooled.addAndGet(batch.size());
+        }
+        catch (IOException | RuntimeException e) {
+            dropped.addAndGet(batch.size());
+            System.err.println("spooling " + batch.size() + " values failed: " + e.getMessage());
+        }
+    }
+
+    private void replay()
+    {
+        for (int i = 0; i < REPLAY_BATCHES && spool != null && !spool.isEmpty() && System.currentTimeMillis() >= retryAt; i++) {
+            try {
+                List<Sample> batch = spool.peek(batchSize);
+                if (!batch.isEmpty()) {
+                    send(batch);
+                }
+                spool.commit();
+            }
+            catch (IOException e) {
+                return;
+            }
+        }
+    }
+
+    private void send(List<Sample> batch)
+            throws IOException
+    {
+        try {
+            int failed = send(request(batch));
+            batches.incrementAndGet();
+            sent.addAndGet(batch.size() - failed);
+            rejected.addAndGet(failed);
+            retryDelayMs = 0;
+            retryAt = 0;
+        }
+        catch (RefusedException e) {
+            batches.incrementAndGet();
+            rejected.addAndGet(batch.size());
+            retryDelayMs = 0;
+            retryAt = 0;
+            System.err.println("sending " + batch.size() + " values to " + server + " refused: " + e.getMessage());
+        }
+        catch (IOException e) {
+            sendErrors.incrementAndGet();
+            retryDelayMs = Math.min(MAX_RETRY_MS, Math.max(MIN_RETRY_MS, retryDelayMs * 2));
+            retryAt = System.currentTimeMillis() + retryDelayMs;
+            System.err.println("sending " + batch.size() + " values to " + server + " failed: " + e.getMessage());
+            throw e;
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    static String request(List<Sample> batch)
+    {
+        JSONArray data = new JSONArray();
+        for (Sample sample : batch) {
+            JSONObject value = new JSONObject();
+            value.put("host", sample.getHost());
+            value.put("key", sample.getKey());
+            value.put("value", sample.getValue());
+            value.put("clock", sample.getClock());
+            value.put("ns", sample.getNs());
+            data.add(value);
+        }
+        long now = System.currentTimeMillis();
+        JSONObject request = new JSONObject();
+        request.put("request", "sender data");
+        request.put("data", data);
+        request.put("clock", now / 1000);
+        request.put("ns", (now % 1000) * 1_000_000);
+        return request.toJSONString();
+    }
+
+    /**
+     * Send one request and return the number of values the server did not accept.
+     */
+    private int send(String request)
+            throws IOException
+    {
+        try (Socket socket = new Socket()) {
+            socket.connect(server, CONNECT_TIMEOUT_MS);
+            socket.setSoTimeout(READ_TIMEOUT_MS);
+            ZabbixProtocol.write(socket.getOutputStream(), request);
+            String response = ZabbixProtocol.read(socket.getInputStream());
+            JSONObject object = (JSONObject) new JSONParser().parse(response);
+            if (!"success".equals(object.get("response"))) {
+                throw new RefusedException("server answered " + response);
+            }
+            Matcher matcher = FAILED.matcher(String.valueOf(object.get("info")));
+            return matcher.find() ? Integer.parseInt(matcher.group(1)) : 0;
+        }
+        catch (ParseException | ClassCastException e) {
+            throw new IOException("invalid response from " + server + ": " + e, e);
+        }
+    }
+
+    /**
+     * Values accepted by the server.
+     */
+    public long getSent()
+    {
+        return sent.get();
+    }
+
+    /**
+     * Values the server received but did not accept, e.g. for unknown hosts or items, or in a request it refused.
+     */
+    public long getRejected()
+    {
+        return rejected.get();
+    }
+
+    /**
+     * Values lost because the queue was full, the server could not be reached and there is no spool, or the spool
+     * was full.
+     */
+    public long getDropped()
+    {
+        return dropped.get() + (spool == null ? 0 : spool.getDropped());
+    }
+
+    /**
+     * Values written to the spool while the server could not be reached.
+     */
+    public long getSpooled()
+    {
+        return spooled.get();
+    }
+
+    public long getBatches()
+    {
+        return batches.get();
+    }
+
+    public long getSendErrors()
+    {
+        return sendErrors.get();
+    }
+
+    /**
+     * Send what is queued and stop; what cannot be sent stays in the spool for the next start.
+     */
+    @Override
+    public void close()
+    {
+        running = false;
+        try {
+            flusher.join();
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (spool != null) {
+            spool.close();
+        }
+    }
+}
@@ -0,0 +1,63 @@
+package com.wgzhao.javora;
+
+import org.junit.Test;
+
+import java.sql.SQLException;
+import java.sql.SQLSyntaxErrorException;
+import java.sql.SQLTimeoutException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class CircuitBreakerTest
+{
+    @Test
+    public void toldUnavailableByTheError()
+    {
+        assertTrue(CircuitBreaker.isUnavailable(new SQLTimeoutException("ORA-01013", "72000", 1013)));
+        assertTrue(CircuitBreaker.isUnavailable(new SQLException("IO Error: Connection reset", "08006", 17002)));
+        assertTrue(CircuitBreaker.isUnavailable(new SQLException("ORA-12514: TNS:listener", null, 12514)));
+        assertFalse(CircuitBreaker.isUnavailable(new SQLSyntaxErrorException("ORA-00942: table or view does not exist", "42000", 942)));
+        assertFalse(CircuitBreaker.isUnavailable(new PoolExhaustedException("timed out after 10000ms waiting for a connection")));
+    }
+
+    @Test
+    public void opensAfterTheThreshold()
+    {
+        CircuitBreaker breaker = new CircuitBreaker(3, 60_000);
+        breaker.failure();
+        breaker.failure();
+        assertEquals(CircuitBreaker.Decision.ALLOW, breaker.acquire());
+        breaker.failure();
+
+        assertEquals(CircuitBreaker.Decision.REJECT, breaker.acquire());
+        assertTrue(breaker.getRetryInMs() > 0);
+    }
+
+    @Test
+    public void skippedRequestsKeepTheFailures()
+    {
+        CircuitBreaker breaker = new CircuitBreaker(3, 60_000);
+        breaker.failure();
+        breaker.failure();
+        breaker.skipped();
+        breaker.failure();
+
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+    }
+
+    @Test
+    public void aSkippedProbeLeavesTheNextRequestToProbe()
+    {
+        CircuitBreaker breaker = new CircuitBreaker(1, 0);
+        breaker.failure();
+        assertEquals(CircuitBreaker.Decision.PROBE, breaker.acquire());
+        assertEquals(CircuitBreaker.Decision.REJECT, breaker.acquire());
+        breaker.skipped();
+
+        assertEquals(CircuitBreaker.Decision.PROBE, breaker.acquire());
+        breaker.success();
+        assertEquals(CircuitBreaker.Decision.ALLOW, breaker.acquire());
+    }
+}
@@ -0,0 +1,155 @@
+package com.wgzhao.javora;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.sql.SQLException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class ConnectionPoolTest
+{
+    private static final long HOUR_MS = TimeUnit.HOURS.toMillis(1);
+
+    private final FakeDatabase database = new FakeDatabase("zabbix", "secret");
+    private final Target target = database.target("secret");
+    private ConnectionPool pool;
+
+    @After
+    public void tearDown()
+    {
+        if (pool != null) {
+            pool.close();
+        }
+        database.drop();
+    }
+
+    @Test
+    public void borrowingTimesOutWhenAllConnectionsAreTaken()
+            throws SQLException
+    {
+        pool = new ConnectionPool(target, 1, HOUR_MS, HOUR_MS, 50, 8);
+        PooledConnection taken = pool.borrow();
+        try {
+            pool.borrow();
+            fail("borrowed more connections than the pool holds");
+        }
+        catch (PoolExhaustedException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("timed out after 50ms"));
+        }
+        assertEquals(1L, pool.stats().get("borrow_timeouts"));
+
+        pool.release(taken, false);
+        pool.release(pool.borrow(), false);
+        assertEquals(1, database.getLogons());
+    }
+
+    @Test
+    public void validatesConnectionsIdleForLongerThanTheInterval()
+            throws SQLException
+    {
+        pool = new ConnectionPool(target, 1, HOUR_MS, HOUR_MS, 50, 8);
+        pool.release(pool.borrow(), false);
+        database.setValid(false);
+        // used a moment ago, handed out without asking
+        pool.release(pool.borrow(), false);
+        assertEquals(1, database.getLogons());
+        pool.close();
+
+        pool = new ConnectionPool(target, 1, HOUR_MS, 0, 50, 8);
+        database.setValid(true);
+        pool.release(pool.borrow(), false);
+        database.setValid(false);
+        pool.release(pool.borrow(), false);
+        assertEquals(3, database.getLogons());
+        assertEquals(1L, pool.stats().get("validation_failures"));
+        assertEquals(1, database.getOpen());
+    }
+
+    @Test
+    public void dropsConnectionsThatFailedAndNoLongerWork()
+            throws SQLException
+    {
+        pool = new ConnectionPool(target, 2, HOUR_MS, HOUR_MS, 50, 8);
+        // a statement error on a sound connection
+        pool.release(pool.borrow(), true);
+        assertEquals(1, pool.getIdle());
+
+        PooledConnection broken = pool.borrow();
+        database.setValid(false);
+        pool.release(broken, true);
+        assertEquals(0, pool.getIdle());
+        assertEquals(0, database.getOpen());
+        assertEquals(1L, pool.stats().get("validation_failures"));
+    }
+
+    @Test
+    public void evictsConnectionsIdleForLongerThanTheTimeout()
+            throws SQLException, InterruptedException
+    {
+        pool = new ConnectionPool(target, 2, 200, HOUR_MS, 50, 8);
+        PooledConnection older = pool.borrow();
+        PooledConnection younger = pool.borrow();
+        pool.release(older, false);
+        Thread.sleep(250);
+        pool.release(younger, false);
+
+        pool.evictIdle();
+        assertEquals(1, pool.getIdle());
+        assertEquals(1, database.getOpen());
+        assertSame(younger, pool.borrow());
+    }
+
+    @Test
+    public void closingLeavesBorrowedConnectionsToTheirRelease()
+            throws SQLException
+    {
+        pool = new ConnectionPool(target, 2, HOUR_MS, HOUR_MS, 50, 8);
+        PooledConnection borrowed = pool.borrow();
+        pool.release(pool.borrow(), false);
+
+        pool.close();
+        assertEquals(0, pool.getIdle());
+        assertEquals(1, database.getOpen());
+        assertFalse(borrowed.getConnection().isClosed());
+
+        pool.release(borrowed, false);
+        assertEquals(0, pool.getIdle());
+        assertEquals(0, database.getOpen());
+        assertEquals(0, pool.getActive());
+    }
+
+    @Test
+    public void dropsThePoolOfARefusedLogon()
+            throws SQLException
+    {
+        ConnectionPools pools = new ConnectionPools();
+        try {
+            Target wrong = database.target("guess");
+            ConnectionPool refused = pools.get(wrong);
+            try {
+                pools.borrow(wrong);
+                fail("logged on with a wrong password");
+            }
+            catch (SQLException e) {
+                assertTrue(ConnectionPools.isLogonRefused(e));
+            }
+            assertNotSame(refused, pools.get(wrong));
+
+            PooledConnection connection = pools.borrow(target);
+            connection.getPool().release(connection, false);
+            assertSame(connection.getPool(), pools.get(target));
+        }
+        finally {
+            pools.close();
+        }
+        assertTrue(ConnectionPools.isLogonRefused(new SQLException("ORA-28000: The account is locked.", "72000", 28000)));
+        assertFalse(ConnectionPools.isLogonRefused(new SQLException("ORA-12514: TNS:listener", null, 12514)));
+    }
+}
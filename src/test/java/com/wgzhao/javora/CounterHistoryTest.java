@@ -0,0 +1,99 @@
+package com.wgzhao.javora;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.sql.SQLTimeoutException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class CounterHistoryTest
+{
+    private static final long RESOLUTION_MS = 20;
+
+    private final Target healthy = new Target("jdbc:oracle:thin:@healthy:1521/orcl", "zabbix", "secret");
+    private final CountDownLatch release = new CountDownLatch(1);
+    private final AtomicInteger hungSamples = new AtomicInteger();
+    private final AtomicInteger commits = new AtomicInteger();
+    private CounterHistory history;
+
+    @After
+    public void tearDown()
+    {
+        release.countDown();
+        if (history != null) {
+            history.close();
+        }
+    }
+
+    @Test
+    public void hungTargetsDoNotHoldUpTheOthers()
+            throws InterruptedException
+    {
+        history = new CounterHistory((target, kind) -> {
+            if (target.getUrl().contains("@hung")) {
+                if ("uptime".equals(kind)) {
+                    return "1000";
+                }
+                hungSamples.incrementAndGet();
+                try {
+                    release.await();
+                }
+                catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                throw new SQLTimeoutException("ORA-01013: user requested cancel of current operation");
+            }
+            return "uptime".equals(kind) ? "1000" : "{\"commits\":" + commits.addAndGet(10) + "}";
+        }, RESOLUTION_MS);
+
+        // more hung targets than the sampler used to have threads
+        for (int i = 0; i < 8; i++) {
+            ask(new Target("jdbc:oracle:thin:@hung" + i + ":1521/orcl", "zabbix", "secret"));
+        }
+        ask(healthy);
+
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        String delta = null;
+        while (delta == null && System.nanoTime() < deadline) {
+            try {
+                delta = history.collect(healthy, Collector.DELTA, "commits");
+            }
+            catch (IllegalStateException e) {
+                Thread.sleep(RESOLUTION_MS);
+            }
+        }
+        assertEquals("10", delta);
+        // one sample holds the lane of each hung target, the ticks after it are skipped
+        assertEquals(8, hungSamples.get());
+    }
+
+    @Test
+    public void rejectsKindsThatAreNoCounters()
+    {
+        history = new CounterHistory((target, kind) -> "0", RESOLUTION_MS);
+        try {
+            history.collect(healthy, Collector.RATE, "version");
+            fail("answered a rate of version");
+        }
+        catch (IllegalArgumentException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("need a counter kind argument"));
+        }
+    }
+
+    // the first request starts sampling the target
+    private void ask(Target target)
+    {
+        try {
+            history.collect(target, Collector.RATE, "commits");
+        }
+        catch (IllegalStateException e) {
+            // no samples yet
+        }
+    }
+}
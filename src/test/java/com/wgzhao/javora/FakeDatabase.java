@@ -0,0 +1,168 @@
+package com.wgzhao.javora;
+
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.Driver;
+import java.sql.DriverManager;
+import java.sql.DriverPropertyInfo;
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Logger;
+
+/**
+ * A database behind a {@code jdbc:fake:} url for tests, logging one user on with one password. Its connections
+ * only know whether they are valid and closed.
+ */
+final class FakeDatabase
+{
+    private static final String PREFIX = "jdbc:fake:";
+    private static final Map<String, FakeDatabase> databases = new ConcurrentHashMap<>();
+    private static final AtomicInteger ids = new AtomicInteger();
+
+    static {
+        try {
+            DriverManager.registerDriver(new FakeDriver());
+        }
+        catch (SQLException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    private final String url = PREFIX + ids.incrementAndGet();
+    private final String username;
+    private volatile String password;
+    private volatile boolean valid = true;
+    private final AtomicInteger logons = new AtomicInteger();
+    private final AtomicInteger open = new AtomicInteger();
+
+    FakeDatabase(String username, String password)
+    {
+        this.username = username;
+        this.password = password;
+        databases.put(url, this);
+    }
+
+    Target target(String password)
+    {
+        return new Target(url, username, password);
+    }
+
+    void setPassword(String password)
+    {
+        this.password = password;
+    }
+
+    // whether the connections opened so far still answer isValid
+    void setValid(boolean valid)
+    {
+        this.valid = valid;
+    }
+
+    int getLogons()
+    {
+        return logons.get();
+    }
+
+    int getOpen()
+    {
+        return open.get();
+    }
+
+    void drop()
+    {
+        databases.remove(url);
+    }
+
+    private Connection logon(Properties info)
+            throws SQLException
+    {
+        if (!username.equals(info.getProperty("user")) || !password.equals(info.getProperty("password"))) {
+            throw new SQLException("ORA-01017: invalid username/password; logon denied", "72000", 1017);
+        }
+        logons.incrementAndGet();
+        open.incrementAndGet();
+        AtomicBoolean closed = new AtomicBoolean();
+        return (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(), new Class<?>[] {Connection.class},
+                (proxy, method, args) -> {
+                    switch (method.getName()) {
+                        case "isValid":
+                            return valid && !closed.get();
+                        case "isClosed":
+                            return closed.get();
+                        case "close":
+                            if (closed.compareAndSet(false, true)) {
+                                open.decrementAndGet();
+                            }
+                            return null;
+                        case "hashCode":
+                            return System.identityHashCode(proxy);
+                        case "equals":
+                            return proxy == args[0];
+                        case "toString":
+                            return url;
+                        default:
+                            throw new SQLFeatureNotSupportedException(method.getName());
+                    }
+                });
+    }
+
+    private static final class FakeDriver
+            implements Driver
+    {
+        @Override
+        public Connection connect(String url, Properties info)
+                throws SQLException
+        {
+            if (!acceptsURL(url)) {
+                return null;
+            }
+            FakeDatabase database = databases.get(url);
+            if (database == null) {
+                throw new SQLException("IO Error: The Network Adapter could not establish the connection", "08006", 17002);
+            }
+            return database.logon(info);
+        }
+
+        @Override
+        public boolean acceptsURL(String url)
+        {
+            return url.startsWith(PREFIX);
+        }
+
+        @Override
+        public DriverPropertyInfo[] getPropertyInfo(String url, Properties info)
+        {
+            return new DriverPropertyInfo[0];
+        }
+
+        @Override
+        public int getMajorVersion()
+        {
+            return 1;
+        }
+
+        @Override
+        public int getMinorVersion()
+        {
+            return 0;
+        }
+
+        @Override
+        public boolean jdbcCompliant()
+        {
+            return false;
+        }
+
+        @Override
+        public Logger getParentLogger()
+                throws SQLFeatureNotSupportedException
+        {
+            throw new SQLFeatureNotSupportedException();
+        }
+    }
+}
@@ -0,0 +1,144 @@
+package com.wgzhao.javora;
+
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+import org.json.simple.parser.JSONParser;
+
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Function;
+
+/**
+ * A local stand-in for the Zabbix server trapper. It reads every request frame as sent, header and data
+ * separately, and answers with what the response function makes of the values, by default accepting them all
+ * like the server does.
+ */
+class FakeTrapper
+        implements Closeable
+{
+    private final ServerSocket serverSocket;
+    private final Thread acceptor;
+    private final List<byte[]> headers = new CopyOnWriteArrayList<>();
+    private final List<byte[]> payloads = new CopyOnWriteArrayList<>();
+    private final List<JSONObject> requests = new CopyOnWriteArrayList<>();
+    private final List<String> errors = new CopyOnWriteArrayList<>();
+    private volatile Function<JSONArray, String> response = FakeTrapper::processed;
+
+    FakeTrapper()
+            throws IOException
+    {
+        serverSocket = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+        acceptor = new Thread(this::accept, "fake-trapper");
+        acceptor.setDaemon(true);
+        acceptor.start();
+    }
+
+    /**
+     * The answer of the server accepting every value of a request.
+     */
+    static String processed(JSONArray data)
+    {
+        return "{\"response\":\"success\",\"info\":\"processed: " + data.size() + "; failed: 0; total: " + data.size()
+                + "; seconds spent: 0.000100\"}";
+    }
+
+    InetSocketAddress getAddress()
+    {
+        return (InetSocketAddress) serverSocket.getLocalSocketAddress();
+    }
+
+    /**
+     * Answer each request with {@code response} applied to its {@code data} array.
+     */
+    void respondWith(Function<JSONArray, String> response)
+    {
+        this.response = response;
+    }
+
+    /**
+     * The 13 header bytes of every request received.
+     */
+    List<byte[]> getHeaders()
+    {
+        return headers;
+    }
+
+    /**
+     * The data bytes following each header.
+     */
+    List<byte[]> getPayloads()
+    {
+        return payloads;
+    }
+
+    /**
+     * The JSON of every request received, in order.
+     */
+    List<JSONObject> getRequests()
+    {
+        return requests;
+    }
+
+    /**
+     * Requests that could not be read, empty if every request was well formed.
+     */
+    List<String> getErrors()
+    {
+        return errors;
+    }
+
+    private void accept()
+    {
+        while (!serverSocket.isClosed()) {
+            try (Socket socket = serverSocket.accept()) {
+                handle(socket);
+            }
+            catch (IOException e) {
+                if (!serverSocket.isClosed()) {
+                    errors.add("connection failed: " + e);
+                }
+            }
+        }
+    }
+
+    private void handle(Socket socket)
+            throws IOException
+    {
+        DataInputStream in = new DataInputStream(socket.getInputStream());
+        byte[] header = new byte[13];
+        in.readFully(header);
+        byte[] payload = new byte[ZabbixProtocol.getIntLE(header, 5)];
+        in.readFully(payload);
+        if (in.available() > 0) {
+            errors.add(in.available() + " bytes after the data");
+        }
+
+        JSONObject request;
+        try {
+            request = (JSONObject) new JSONParser().parse(new String(payload, StandardCharsets.UTF_8));
+        }
+        catch (Exception e) {
+            errors.add("malformed payload: " + e);
+            return;
+        }
+        headers.add(header);
+        payloads.add(payload);
+        requests.add(request);
+        ZabbixProtocol.write(socket.getOutputStream(), response.apply((JSONArray) request.get("data")));
+    }
+
+    @Override
+    public void close()
+            throws IOException
+    {
+        serverSocket.close();
+    }
+}
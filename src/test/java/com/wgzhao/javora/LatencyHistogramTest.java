@@ -0,0 +1,57 @@
+package com.wgzhao.javora;
+
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class LatencyHistogramTest
+{
+    @Test
+    public void answersZeroWithoutDurations()
+    {
+        LatencyHistogram histogram = new LatencyHistogram();
+
+        assertEquals(0, histogram.getCount());
+        assertEquals(0, histogram.getQuantileSeconds(0.99), 0);
+        assertEquals(0L, histogram.toJson().get("count"));
+    }
+
+    @Test
+    public void bucketsAreContiguousUpToTheLast()
+    {
+        int previous = 0;
+        for (long micros = 1; micros < TimeUnit.MINUTES.toMicros(30); micros += micros / 16 + 1) {
+            int bucket = LatencyHistogram.bucket(micros);
+            assertTrue(micros + " went back to bucket " + bucket, bucket >= previous && bucket <= previous + 1);
+            assertTrue(micros + " not below the bound of bucket " + bucket, micros < LatencyHistogram.upperBound(bucket)
+                    || bucket == LatencyHistogram.bucket(Long.MAX_VALUE));
+            previous = bucket;
+        }
+    }
+
+    @Test
+    public void quantilesStayWithinABucket()
+    {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int millis = 1; millis <= 1000; millis++) {
+            histogram.record(TimeUnit.MILLISECONDS.toNanos(millis));
+        }
+
+        assertEquals(1000, histogram.getCount());
+        assertEquals(0.5, histogram.getQuantileSeconds(0.5), 0.5 * 0.125);
+        assertEquals(0.99, histogram.getQuantileSeconds(0.99), 0.99 * 0.125);
+        assertEquals(1.0, histogram.getMaxSeconds(), 0);
+    }
+
+    @Test
+    public void durationsBeyondTheLastBucketAnswerTheMaximum()
+    {
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(TimeUnit.HOURS.toNanos(2));
+
+        assertEquals(TimeUnit.HOURS.toSeconds(2), histogram.getQuantileSeconds(0.5), 0);
+    }
+}
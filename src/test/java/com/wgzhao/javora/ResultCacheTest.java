@@ -0,0 +1,202 @@
+package com.wgzhao.javora;
+
+import org.json.simple.JSONObject;
+import org.junit.After;
+import org.junit.Test;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class ResultCacheTest
+{
+    private static final String[] NO_PARAM = new String[0];
+
+    private final Target target = new Target("jdbc:oracle:thin:@db1:1521/orcl", "zabbix", "secret");
+    private final ExecutorService pollers = Executors.newCachedThreadPool();
+    private final AtomicInteger loads = new AtomicInteger();
+
+    @After
+    public void tearDown()
+    {
+        pollers.shutdownNow();
+    }
+
+    @Test
+    public void coalescesConcurrentMisses()
+            throws Exception
+    {
+        ResultCache cache = new ResultCache();
+        CountDownLatch loading = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        ResultCache.Loader loader = () -> {
+            loads.incrementAndGet();
+            loading.countDown();
+            await(release);
+            return "1";
+        };
+
+        List<Future<String>> answers = new ArrayList<>();
+        answers.add(pollers.submit(() -> cache.get(target, "check_active", NO_PARAM, loader)));
+        assertTrue(loading.await(5, TimeUnit.SECONDS));
+        for (int i = 0; i < 3; i++) {
+            answers.add(pollers.submit(() -> cache.get(target, "check_active", NO_PARAM, loader)));
+        }
+        waitFor(() -> cache.getCoalesced() == 3);
+        release.countDown();
+
+        for (Future<String> answer : answers) {
+            assertEquals("1", answer.get(5, TimeUnit.SECONDS));
+        }
+        assertEquals(1, loads.get());
+        assertEquals(1, cache.getMisses());
+        assertEquals(0, cache.getHits());
+    }
+
+    @Test
+    public void failuresReachEveryWaiterButAreNotCached()
+            throws Exception
+    {
+        ResultCache cache = new ResultCache();
+        CountDownLatch loading = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        ResultCache.Loader failing = () -> {
+            loads.incrementAndGet();
+            loading.countDown();
+            await(release);
+            throw new SQLException("ORA-01013: user requested cancel of current operation", "72000", 1013);
+        };
+
+        Future<String> first = pollers.submit(() -> cache.get(target, "version", NO_PARAM, failing));
+        assertTrue(loading.await(5, TimeUnit.SECONDS));
+        Future<String> waiter = pollers.submit(() -> cache.get(target, "version", NO_PARAM, failing));
+        waitFor(() -> cache.getCoalesced() == 1);
+        release.countDown();
+
+        assertFailedWith(1013, first);
+        assertFailedWith(1013, waiter);
+        assertEquals("19.0.0.0.0", cache.get(target, "version", NO_PARAM, () -> "19.0.0.0.0"));
+        assertEquals(2, cache.getMisses());
+        assertEquals(1, loads.get());
+    }
+
+    @Test
+    public void expiresAfterTheTimeToLive()
+            throws SQLException, InterruptedException
+    {
+        ResultCache cache = new ResultCache(10, Collections.singletonMap("uptime", 100L));
+        assertEquals("1", cache.get(target, "uptime", NO_PARAM, this::load));
+        assertEquals("1", cache.get(target, "uptime", NO_PARAM, this::load));
+        Thread.sleep(150);
+
+        assertEquals("2", cache.get(target, "uptime", NO_PARAM, this::load));
+        assertEquals(1, cache.getHits());
+        assertEquals(2, cache.getMisses());
+    }
+
+    @Test
+    public void cachesNothingWithoutTimeToLive()
+            throws SQLException
+    {
+        ResultCache cache = new ResultCache(10, Collections.singletonMap("uptime", 0L));
+        cache.get(target, "uptime", NO_PARAM, this::load);
+
+        assertEquals("2", cache.get(target, "uptime", NO_PARAM, this::load));
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void evictsTheLeastRecentlyUsed()
+            throws SQLException
+    {
+        ResultCache cache = new ResultCache(2, Collections.emptyMap());
+        cache.get(target, "tbl_usage", new String[] {"USERS"}, this::load);
+        cache.get(target, "tbl_usage", new String[] {"SYSTEM"}, this::load);
+        // USERS is now used more recently than SYSTEM
+        cache.get(target, "tbl_usage", new String[] {"USERS"}, this::load);
+        cache.get(target, "tbl_usage", new String[] {"SYSAUX"}, this::load);
+
+        assertEquals(2, cache.size());
+        assertEquals("1", cache.get(target, "tbl_usage", new String[] {"USERS"}, this::load));
+        assertEquals("4", cache.get(target, "tbl_usage", new String[] {"SYSTEM"}, this::load));
+    }
+
+    @Test
+    public void sharesObjectsWithoutParsingThemAgain()
+            throws SQLException
+    {
+        ResultCache cache = new ResultCache();
+        JSONObject stats = cache.getObject(target, "all_stats", NO_PARAM, () -> object("commits", 10L));
+
+        assertSame(stats, cache.getObject(target, "all_stats", NO_PARAM, () -> object("commits", 20L)));
+        assertEquals("{\"commits\":10}", cache.get(target, "all_stats", NO_PARAM, () -> "{\"commits\":20}"));
+
+        // loaded as text, parsed by the first request for the object only
+        cache.get(target, "all_users", NO_PARAM, () -> "{\"SYSTEM\":{\"user_status\":1}}");
+        JSONObject users = cache.getObject(target, "all_users", NO_PARAM, () -> object("SYSTEM", null));
+        assertTrue(users.containsKey("SYSTEM"));
+        assertSame(users, cache.getObject(target, "all_users", NO_PARAM, () -> object("SYSTEM", null)));
+    }
+
+    private String load()
+    {
+        return String.valueOf(loads.incrementAndGet());
+    }
+
+    @SuppressWarnings("unchecked")
+    private static JSONObject object(String key, Object value)
+    {
+        JSONObject object = new JSONObject();
+        object.put(key, value);
+        return object;
+    }
+
+    private static void await(CountDownLatch latch)
+            throws SQLException
+    {
+        try {
+            latch.await();
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException(e);
+        }
+    }
+
+    private static void waitFor(BooleanSupplier condition)
+            throws InterruptedException
+    {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (!condition.getAsBoolean()) {
+            assertTrue("timed out", System.nanoTime() < deadline);
+            Thread.sleep(5);
+        }
+    }
+
+    private static void assertFailedWith(int errorCode, Future<String> answer)
+            throws InterruptedException, TimeoutException
+    {
+        try {
+            answer.get(5, TimeUnit.SECONDS);
+            fail("answered " + errorCode + " with a value");
+        }
+        catch (ExecutionException e) {
+            assertEquals(errorCode, ((SQLException) e.getCause()).getErrorCode());
+        }
+    }
+}
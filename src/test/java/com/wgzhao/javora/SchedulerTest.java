@@ -0,0 +1,237 @@
+package com.wgzhao.javora;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class SchedulerTest
+{
+    private final Target erp = new Target("jdbc:oracle:thin:@erp:1521/erp", "zabbix", "secret");
+    private final Target crm = new Target("jdbc:oracle:thin:@crm:1521/crm", "zabbix", "secret");
+    private final CountDownLatch release = new CountDownLatch(1);
+    private final Map<Target, AtomicInteger> running = new ConcurrentHashMap<>();
+    private final Map<Target, AtomicInteger> mostRunning = new ConcurrentHashMap<>();
+    private Collector collector;
+    private Scheduler scheduler;
+
+    @After
+    public void tearDown()
+    {
+        release.countDown();
+        if (scheduler != null) {
+            scheduler.close();
+        }
+        if (collector != null) {
+            collector.close();
+        }
+    }
+
+    @Test
+    public void expensiveChecksNeverOverlapOnATarget()
+            throws InterruptedException
+    {
+        AtomicInteger runs = new AtomicInteger();
+        start(4, 4, 20, (target, kind) -> {
+            enter(target);
+            try {
+                Thread.sleep(30);
+            }
+            finally {
+                leave(target);
+            }
+            runs.incrementAndGet();
+            return "0";
+        }, entry("erp", erp, "dbsize", "all_tablespaces", "lastapplarclog"));
+
+        waitFor(() -> runs.get() >= 6);
+        assertEquals(1, mostRunning.get(erp).get());
+    }
+
+    @Test
+    public void capsTheChecksRunningOnATarget()
+            throws InterruptedException
+    {
+        start(8, 2, TimeUnit.HOURS.toMillis(1), (target, kind) -> {
+            enter(target);
+            try {
+                release.await();
+            }
+            finally {
+                leave(target);
+            }
+            return "0";
+        }, entry("erp", erp, "uptime", "version", "commits", "rollbacks"), entry("crm", crm, "uptime", "version", "commits", "rollbacks"));
+
+        waitFor(() -> running(erp) >= 2 && running(crm) >= 2);
+        // the workers would have room for more
+        Thread.sleep(200);
+        assertEquals(2, mostRunning.get(erp).get());
+        assertEquals(2, mostRunning.get(crm).get());
+    }
+
+    @Test
+    public void listedKindsObservedCheapMayOverlap()
+            throws InterruptedException
+    {
+        Map<String, AtomicInteger> runs = new ConcurrentHashMap<>();
+        start(4, 4, Scheduler.DEFAULT_EXPENSIVE_MS, (target, kind) -> {
+            if (runs.computeIfAbsent(kind, k -> new AtomicInteger()).incrementAndGet() == 1) {
+                // observed cheap
+                return "0";
+            }
+            enter(target);
+            try {
+                release.await();
+            }
+            finally {
+                leave(target);
+            }
+            return "0";
+        }, entry("erp", erp, "dbsize", "all_tablespaces"));
+
+        waitFor(() -> running(erp) == 2);
+    }
+
+    @Test
+    public void kindsObservedSlowBecomeExpensive()
+            throws InterruptedException
+    {
+        Map<String, AtomicInteger> runs = new ConcurrentHashMap<>();
+        AtomicInteger firstRunsDone = new AtomicInteger();
+        AtomicInteger observedRunning = new AtomicInteger();
+        AtomicInteger overlaps = new AtomicInteger();
+        start(4, 4, 20, (target, kind) -> {
+            AtomicInteger kindRuns = runs.computeIfAbsent(kind, k -> new AtomicInteger());
+            // both kinds finished a run, so every run from now on knows its cost
+            boolean observed = firstRunsDone.get() == 2;
+            if (observed && observedRunning.incrementAndGet() > 1) {
+                overlaps.incrementAndGet();
+            }
+            try {
+                Thread.sleep(40);
+            }
+            finally {
+                if (observed) {
+                    observedRunning.decrementAndGet();
+                }
+            }
+            if (kindRuns.incrementAndGet() == 1) {
+                firstRunsDone.incrementAndGet();
+            }
+            return "0";
+        }, entry("erp", erp, "uptime", "version"));
+
+        waitFor(() -> runs.get("uptime") != null && runs.get("uptime").get() >= 5
+                && runs.get("version") != null && runs.get("version").get() >= 5);
+        assertEquals(0, overlaps.get());
+    }
+
+    @Test
+    public void laterRunsKeepTheirOffsetAndSkipMissedOnes()
+            throws InterruptedException
+    {
+        List<Long> starts = new CopyOnWriteArrayList<>();
+        start(1, 1, TimeUnit.HOURS.toMillis(1), (target, kind) -> {
+            starts.add(System.nanoTime());
+            if (starts.size() == 1) {
+                // misses the next two runs
+                Thread.sleep(250);
+            }
+            return "0";
+        }, entry("erp", erp, "uptime"));
+
+        waitFor(() -> starts.size() >= 4);
+        List<Long> gaps = new ArrayList<>();
+        for (int i = 1; i < 4; i++) {
+            gaps.add(TimeUnit.NANOSECONDS.toMillis(starts.get(i) - starts.get(i - 1)));
+        }
+        assertTrue(gaps.toString(), Math.abs(gaps.get(0) - 300) < 50);
+        assertTrue(gaps.toString(), Math.abs(gaps.get(1) - 100) < 50);
+        assertTrue(gaps.toString(), Math.abs(gaps.get(2) - 100) < 50);
+    }
+
+    private interface Answer
+    {
+        String collect(Target target, String kind)
+                throws InterruptedException;
+    }
+
+    // every check without an interval of its own runs every 100ms
+    private void start(int workers, int targetConcurrency, long expensiveMs, Answer answer, Inventory.Entry... entries)
+    {
+        collector = new Collector(new ConnectionPools())
+        {
+            @Override
+            public String collect(Target target, String kind, String... param)
+                    throws SQLException
+            {
+                try {
+                    return answer.collect(target, kind);
+                }
+                catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new SQLException("interrupted", e);
+                }
+            }
+
+            @Override
+            public void recordOutput(Target target, String kind, long nanos)
+            {
+                // no pools to record to
+            }
+        };
+        scheduler = new Scheduler(collector, sample -> { }, workers, targetConcurrency, expensiveMs);
+        scheduler.schedule(new Inventory(Arrays.asList(entries)), 100);
+        scheduler.start();
+    }
+
+    private static Inventory.Entry entry(String host, Target target, String... kinds)
+    {
+        List<Inventory.Check> checks = new ArrayList<>();
+        for (String kind : kinds) {
+            checks.add(new Inventory.Check(kind));
+        }
+        return new Inventory.Entry(host, target, checks);
+    }
+
+    private void enter(Target target)
+    {
+        int now = running.computeIfAbsent(target, t -> new AtomicInteger()).incrementAndGet();
+        mostRunning.computeIfAbsent(target, t -> new AtomicInteger()).accumulateAndGet(now, Math::max);
+    }
+
+    private void leave(Target target)
+    {
+        running.get(target).decrementAndGet();
+    }
+
+    private int running(Target target)
+    {
+        AtomicInteger count = running.get(target);
+        return count == null ? 0 : count.get();
+    }
+
+    private static void waitFor(BooleanSupplier condition)
+            throws InterruptedException
+    {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (!condition.getAsBoolean()) {
+            assertTrue("timed out", System.nanoTime() < deadline);
+            Thread.sleep(5);
+        }
+    }
+}
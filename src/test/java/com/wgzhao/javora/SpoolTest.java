@@ -0,0 +1,247 @@
+package com.wgzhao.javora;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class SpoolTest
+{
+    // record header, clock, ns and the lengths of host "db1", key "k" and a three digit value
+    private static final int RECORD = 8 + 8 + 4 + 4 + 3 + 4 + 1 + 4 + 3;
+    // five records per segment
+    private static final long SEGMENT = 5 * RECORD + 4;
+    private static final long CLOCK_MS = 1_700_000_000_123L;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void replaysInAppendOrderAcrossSegments()
+            throws IOException
+    {
+        Path directory = folder.getRoot().toPath();
+        Spool spool = new Spool(directory, SEGMENT, 10 * SEGMENT);
+        spool.append(samples(0, 4));
+        spool.append(samples(4, 12));
+        assertEquals(3, segments(directory).size());
+
+        List<Sample> replayed = spool.peek(100);
+        assertEquals(values(0, 12), values(replayed));
+        Sample first = replayed.get(0);
+        assertEquals("db1", first.getHost());
+        assertEquals("k", first.getKey());
+        assertEquals(CLOCK_MS / 1000, first.getClock());
+        assertEquals(123_000_000, first.getNs());
+        spool.close();
+    }
+
+    @Test
+    public void commitsWhatWasPeeked()
+            throws IOException
+    {
+        Spool spool = new Spool(folder.getRoot().toPath(), SEGMENT, 10 * SEGMENT);
+        spool.append(samples(0, 8));
+
+        assertEquals(values(0, 3), values(spool.peek(3)));
+        // not committed, the same samples again
+        assertEquals(values(0, 3), values(spool.peek(3)));
+        spool.commit();
+        assertEquals(values(3, 8), values(spool.peek(100)));
+        spool.commit();
+        assertTrue(spool.isEmpty());
+        spool.close();
+    }
+
+    @Test
+    public void deletesSegmentsReadToTheEnd()
+            throws IOException
+    {
+        Path directory = folder.getRoot().toPath();
+        Spool spool = new Spool(directory, SEGMENT, 10 * SEGMENT);
+        spool.append(samples(0, 12));
+
+        spool.peek(7);
+        spool.commit();
+        assertEquals(2, segments(directory).size());
+        spool.close();
+    }
+
+    @Test
+    public void resumesAtTheCheckpoint()
+            throws IOException
+    {
+        Path directory = folder.getRoot().toPath();
+        Spool spool = new Spool(directory, SEGMENT, 10 * SEGMENT);
+        spool.append(samples(0, 12));
+        spool.peek(7);
+        spool.commit();
+        // peeked but not delivered, sent again after a restart
+        spool.peek(2);
+        spool.close();
+
+        Spool reopened = new Spool(directory, SEGMENT, 10 * SEGMENT);
+        assertEquals(values(7, 12), values(reopened.peek(100)));
+        reopened.close();
+    }
+
+    @Test
+    public void startsOverWithoutCheckpoint()
+            throws IOException
+    {
+        Path directory = folder.getRoot().toPath();
+        Spool spool = new Spool(directory, SEGMENT, 10 * SEGMENT);
+        spool.append(samples(0, 3));
+        spool.close();
+        Files.delete(directory.resolve("spool.checkpoint"));
+
+        Spool reopened = new Spool(directory, SEGMENT, 10 * SEGMENT);
+        assertEquals(values(0, 3), values(reopened.peek(100)));
+        reopened.close();
+    }
+
+    @Test
+    public void endsTheDataAtATornRecord()
+            throws IOException
+    {
+        Path directory = folder.getRoot().toPath();
+        Spool spool = new Spool(directory, SEGMENT, 10 * SEGMENT);
+        spool.append(samples(0, 4));
+        spool.close();
+        tear(segments(directory).get(0), 2);
+
+        Spool reopened = new Spool(directory, SEGMENT, 10 * SEGMENT);
+        assertEquals(values(0, 2), values(reopened.peek(100)));
+        // appending overwrites the torn record
+        reopened.append(samples(10, 11));
+        assertEquals(values(0, 2, 10, 11), values(reopened.peek(100)));
+        reopened.close();
+    }
+
+    @Test
+    public void clampsACheckpointPastTheData()
+            throws IOException
+    {
+        Path directory = folder.getRoot().toPath();
+        Spool spool = new Spool(directory, SEGMENT, 10 * SEGMENT);
+        spool.append(samples(0, 4));
+        spool.peek(4);
+        spool.commit();
+        spool.close();
+        // the checkpoint made it to disk, the last records did not
+        tear(segments(directory).get(0), 2);
+
+        Spool reopened = new Spool(directory, SEGMENT, 10 * SEGMENT);
+        assertTrue(reopened.isEmpty());
+        reopened.append(samples(10, 12));
+        assertFalse(reopened.isEmpty());
+        assertEquals(values(10, 12), values(reopened.peek(100)));
+        reopened.close();
+    }
+
+    @Test
+    public void dropsTheOldestSegmentWhenFull()
+            throws IOException
+    {
+        Path directory = folder.getRoot().toPath();
+        Spool spool = new Spool(directory, SEGMENT, 2 * SEGMENT);
+        for (int i = 0; i < 20; i++) {
+            spool.append(samples(i, i + 1));
+        }
+
+        assertEquals(2, segments(directory).size());
+        assertEquals(2 * SEGMENT, spool.getBytes());
+        assertEquals(10, spool.getDropped());
+        assertEquals(values(10, 20), values(spool.peek(100)));
+        spool.close();
+    }
+
+    @Test
+    public void dropsOnlyWhatWasNotDelivered()
+            throws IOException
+    {
+        Spool spool = new Spool(folder.getRoot().toPath(), SEGMENT, 2 * SEGMENT);
+        spool.append(samples(0, 8));
+        spool.peek(3);
+        spool.commit();
+        spool.append(samples(8, 12));
+
+        assertEquals(2, spool.getDropped());
+        assertEquals(values(5, 12), values(spool.peek(100)));
+        spool.close();
+    }
+
+    @Test
+    public void dropsSamplesLargerThanASegment()
+            throws IOException
+    {
+        Spool spool = new Spool(folder.getRoot().toPath(), SEGMENT, 10 * SEGMENT);
+        char[] large = new char[(int) SEGMENT];
+        spool.append(Collections.singletonList(Sample.of("db1", "k", new String(large), CLOCK_MS)));
+
+        assertEquals(1, spool.getDropped());
+        assertTrue(spool.isEmpty());
+        spool.close();
+    }
+
+    // samples with the values from to (exclusive) as three digits
+    private static List<Sample> samples(int from, int to)
+    {
+        List<Sample> samples = new ArrayList<>();
+        for (int i = from; i < to; i++) {
+            samples.add(Sample.of("db1", "k", String.format("%03d", i), CLOCK_MS));
+        }
+        return samples;
+    }
+
+    private static List<String> values(int... ranges)
+    {
+        List<String> values = new ArrayList<>();
+        for (int i = 0; i < ranges.length; i += 2) {
+            values.addAll(values(samples(ranges[i], ranges[i + 1])));
+        }
+        return values;
+    }
+
+    private static List<String> values(List<Sample> samples)
+    {
+        return samples.stream().map(Sample::getValue).collect(Collectors.toList());
+    }
+
+    private static List<Path> segments(Path directory)
+            throws IOException
+    {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.filter(file -> file.getFileName().toString().endsWith(".log")).sorted().collect(Collectors.toList());
+        }
+    }
+
+    // flip a byte of the value of the record at index, as if the machine crashed while writing it
+    private static void tear(Path segment, int index)
+            throws IOException
+    {
+        try (FileChannel channel = FileChannel.open(segment, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            long position = (long) index * RECORD + RECORD - 1;
+            ByteBuffer value = ByteBuffer.allocate(1);
+            channel.read(value, position);
+            value.put(0, (byte) ~value.get(0));
+            value.rewind();
+            channel.write(value, position);
+        }
+    }
+}
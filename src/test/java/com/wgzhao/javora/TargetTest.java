@@ -0,0 +1,81 @@
+package com.wgzhao.javora;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.sql.SQLException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.fail;
+
+public class TargetTest
+{
+    private final FakeDatabase database = new FakeDatabase("zabbix", "secret");
+    private final ConnectionPools pools = new ConnectionPools();
+
+    @After
+    public void tearDown()
+    {
+        pools.close();
+        database.drop();
+    }
+
+    @Test
+    public void thePasswordIsPartOfTheIdentity()
+    {
+        assertEquals(database.target("secret"), database.target("secret"));
+        assertNotEquals(database.target("secret"), database.target("guess"));
+        assertEquals("zabbix@" + database.target("secret").getUrl(), database.target("guess").toString());
+    }
+
+    @Test
+    public void aWrongPasswordGetsNoPooledConnection()
+            throws SQLException
+    {
+        ConnectionPool pool = pools.get(database.target("secret"));
+        pool.release(pool.borrow(), false);
+        assertEquals(1, pool.getIdle());
+
+        try {
+            pools.get(database.target("guess")).borrow();
+            fail("borrowed a connection with a wrong password");
+        }
+        catch (SQLException e) {
+            assertEquals(1017, e.getErrorCode());
+        }
+        assertEquals(1, database.getLogons());
+    }
+
+    @Test
+    public void aWrongPasswordGetsNoCachedResult()
+            throws SQLException
+    {
+        ResultCache cache = new ResultCache();
+        assertEquals("19.0.0.0.0", cache.get(database.target("secret"), "version", new String[0], () -> "19.0.0.0.0"));
+
+        try {
+            cache.get(database.target("guess"), "version", new String[0], () -> {
+                throw new SQLException("ORA-01017: invalid username/password; logon denied", "72000", 1017);
+            });
+            fail("answered from the cache with a wrong password");
+        }
+        catch (SQLException e) {
+            assertEquals(1017, e.getErrorCode());
+        }
+        assertEquals(0, cache.getHits());
+    }
+
+    @Test
+    public void aChangedPasswordLogsOnAgain()
+            throws SQLException
+    {
+        ConnectionPool old = pools.get(database.target("secret"));
+        old.release(old.borrow(), false);
+        database.setPassword("changed");
+
+        ConnectionPool pool = pools.get(database.target("changed"));
+        pool.release(pool.borrow(), false);
+        assertEquals(2, database.getLogons());
+    }
+}
@@ -0,0 +1,180 @@
+package com.wgzhao.javora;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.Inet6Address;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.SocketException;
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class ZabbixAgentServerTest
+{
+    private static final Target DEFAULT_TARGET = Target.of("db1", "1521", "orcl", "zabbix", "secret");
+
+    private ZabbixAgentServer server;
+    private Thread serving;
+
+    @After
+    public void tearDown()
+            throws IOException, InterruptedException
+    {
+        if (server != null) {
+            server.close();
+            serving.join(5000);
+        }
+    }
+
+    @Test
+    public void answersBothKeyForms()
+            throws IOException
+    {
+        start(Collections.emptyList(), 1);
+
+        assertEquals("1", ask("agent.ping"));
+        assertEquals("zabbix@jdbc:oracle:thin:@db1:1521/orcl uptime", ask("javora[uptime]"));
+        assertEquals("zabbix@jdbc:oracle:thin:@db1:1521/orcl tablespace [USERS, DATA]", ask("javora[tablespace,\"USERS, DATA\"]"));
+        assertEquals("scott@jdbc:oracle:thin:@db2:1522/crm tablespace [USERS]",
+                ask("javora[scott,tiger,db2,1522,crm,tablespace,USERS]"));
+    }
+
+    @Test
+    public void refusesKeysThatAreNoChecks()
+            throws IOException
+    {
+        start(Collections.emptyList(), 1);
+
+        assertEquals(ZabbixProtocol.NOT_SUPPORTED + "\0Unsupported item key.", ask("system.uptime"));
+        assertEquals(ZabbixProtocol.NOT_SUPPORTED + "\0no such kind: nonsense", ask("javora[nonsense]"));
+        assertEquals(ZabbixProtocol.NOT_SUPPORTED + "\0the kind tablespace need a argument", ask("javora[tablespace]"));
+        assertEquals(ZabbixProtocol.NOT_SUPPORTED + "\0Invalid item key format: unterminated quote.", ask("javora[\"uptime]"));
+    }
+
+    @Test
+    public void refusesKeysNamingADatabaseByDefault()
+            throws IOException
+    {
+        start(Collections.emptyList(), 0);
+
+        assertEquals(ZabbixProtocol.NOT_SUPPORTED + "\0Keys naming a database are not allowed.",
+                ask("javora[scott,tiger,db2,1522,crm,uptime]"));
+        assertEquals("zabbix@jdbc:oracle:thin:@db1:1521/orcl uptime", ask("javora[uptime]"));
+    }
+
+    @Test
+    public void capsTheDatabasesNamedByKeys()
+            throws IOException
+    {
+        start(Collections.emptyList(), 1);
+
+        // an invalid key takes no slot
+        assertEquals(ZabbixProtocol.NOT_SUPPORTED + "\0no such kind: nonsense", ask("javora[scott,tiger,db3,1521,hr,nonsense]"));
+        assertEquals("scott@jdbc:oracle:thin:@db2:1522/crm uptime", ask("javora[scott,tiger,db2,1522,crm,uptime]"));
+        assertEquals("scott@jdbc:oracle:thin:@db2:1522/crm version", ask("javora[scott,tiger,db2,1522,crm,version]"));
+        // another password is another target
+        assertEquals(ZabbixProtocol.NOT_SUPPORTED + "\0More than 1 databases named by keys.",
+                ask("javora[scott,lion,db2,1522,crm,uptime]"));
+        assertEquals(ZabbixProtocol.NOT_SUPPORTED + "\0More than 1 databases named by keys.",
+                ask("javora[scott,tiger,db3,1521,hr,uptime]"));
+    }
+
+    @Test
+    public void disconnectsPeersNotAllowed()
+            throws IOException
+    {
+        start(Collections.singletonList("10.0.0.0/8"), 0);
+        try {
+            ask("agent.ping");
+            fail("answered a peer that is not allowed");
+        }
+        catch (EOFException | SocketException e) {
+            // closed without an answer, reset if the key was still unread
+        }
+    }
+
+    @Test
+    public void answersAllowedPeers()
+            throws IOException
+    {
+        start(Arrays.asList("10.0.0.0/8", InetAddress.getLoopbackAddress().getHostAddress()), 0);
+
+        assertEquals("1", ask("agent.ping"));
+    }
+
+    @Test
+    public void matchesNetworksAndMappedAddresses()
+            throws IOException
+    {
+        ZabbixAgentServer.Peer network = ZabbixAgentServer.Peer.parse("192.168.16.0/20").get(0);
+        assertTrue(network.matches(InetAddress.getByName("192.168.16.1")));
+        assertTrue(network.matches(InetAddress.getByName("192.168.31.254")));
+        assertFalse(network.matches(InetAddress.getByName("192.168.32.1")));
+        assertFalse(network.matches(InetAddress.getByName("::1")));
+
+        // an IPv4 peer accepted by an IPv6 socket
+        byte[] mapped = new byte[16];
+        mapped[10] = (byte) 0xff;
+        mapped[11] = (byte) 0xff;
+        mapped[12] = (byte) 192;
+        mapped[13] = (byte) 168;
+        mapped[14] = 20;
+        mapped[15] = 1;
+        assertTrue(network.matches(Inet6Address.getByAddress(null, mapped, -1)));
+        mapped[11] = 0;
+        assertFalse(network.matches(Inet6Address.getByAddress(null, mapped, -1)));
+
+        ZabbixAgentServer.Peer host = ZabbixAgentServer.Peer.parse("10.1.2.3").get(0);
+        assertTrue(host.matches(InetAddress.getByName("10.1.2.3")));
+        assertFalse(host.matches(InetAddress.getByName("10.1.2.4")));
+        assertTrue(ZabbixAgentServer.Peer.parse("0.0.0.0/0").get(0).matches(InetAddress.getByName("203.0.113.9")));
+        assertTrue(ZabbixAgentServer.Peer.parse("fd00::/8").get(0).matches(InetAddress.getByName("fd12:3456::1")));
+    }
+
+    private void start(List<String> allow, int maxInlineTargets)
+            throws IOException
+    {
+        // answers which target, kind and argument a key resolved to
+        Collector collector = new Collector(new ConnectionPools())
+        {
+            @Override
+            public String collect(Target target, String kind, String... param)
+                    throws SQLException
+            {
+                return target + " " + kind + (param.length == 0 ? "" : " " + Arrays.toString(param));
+            }
+
+            @Override
+            public void recordOutput(Target target, String kind, long nanos)
+            {
+                // no pools to record to
+            }
+        };
+        server = new ZabbixAgentServer(collector, DEFAULT_TARGET, new InetSocketAddress(InetAddress.getLoopbackAddress(), 0),
+                2, allow, maxInlineTargets);
+        serving = new Thread(server::serve, "agent-server-test");
+        serving.start();
+    }
+
+    private String ask(String key)
+            throws IOException
+    {
+        try (Socket socket = new Socket()) {
+            socket.connect(server.getAddress(), 5000);
+            socket.setSoTimeout(5000);
+            ZabbixProtocol.write(socket.getOutputStream(), key);
+            return ZabbixProtocol.read(socket.getInputStream());
+        }
+    }
+}
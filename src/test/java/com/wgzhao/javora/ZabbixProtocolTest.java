@@ -0,0 +1,96 @@
+package com.wgzhao.javora;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+public class ZabbixProtocolTest
+{
+    @Test
+    public void writesHeaderAndLittleEndianLength()
+            throws IOException
+    {
+        // the length counts bytes, not characters
+        String data = "{\"value\":\"gr\u00f6\u00dfe\"}";
+        byte[] payload = data.getBytes(StandardCharsets.UTF_8);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ZabbixProtocol.write(out, data);
+
+        byte[] frame = out.toByteArray();
+        assertEquals(13 + payload.length, frame.length);
+        assertArrayEquals(new byte[] {'Z', 'B', 'X', 'D', 0x01}, Arrays.copyOfRange(frame, 0, 5));
+        assertArrayEquals(new byte[] {(byte) payload.length, 0, 0, 0}, Arrays.copyOfRange(frame, 5, 9));
+        assertArrayEquals(new byte[4], Arrays.copyOfRange(frame, 9, 13));
+        assertArrayEquals(payload, Arrays.copyOfRange(frame, 13, frame.length));
+    }
+
+    @Test
+    public void writesLengthAbove255()
+            throws IOException
+    {
+        char[] data = new char[0x1234];
+        Arrays.fill(data, 'x');
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ZabbixProtocol.write(out, new String(data));
+
+        assertArrayEquals(new byte[] {0x34, 0x12, 0, 0}, Arrays.copyOfRange(out.toByteArray(), 5, 9));
+    }
+
+    @Test
+    public void readsWhatItWrites()
+            throws IOException
+    {
+        String data = "{\"request\":\"sender data\",\"data\":[]}";
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ZabbixProtocol.write(out, data);
+
+        assertEquals(data, ZabbixProtocol.read(new ByteArrayInputStream(out.toByteArray())));
+    }
+
+    @Test
+    public void readsLargePackets()
+            throws IOException
+    {
+        byte[] frame = new byte[5 + 16 + 2];
+        System.arraycopy(ZabbixProtocol.HEADER, 0, frame, 0, 4);
+        frame[4] = ZabbixProtocol.FLAG_ZABBIX | ZabbixProtocol.FLAG_LARGE;
+        frame[5] = 2;
+        frame[21] = 'o';
+        frame[22] = 'k';
+
+        assertEquals("ok", ZabbixProtocol.read(new ByteArrayInputStream(frame)));
+    }
+
+    @Test
+    public void readsPlainKeys()
+            throws IOException
+    {
+        byte[] request = "javora[check_active]\r\n".getBytes(StandardCharsets.UTF_8);
+
+        assertEquals("javora[check_active]", ZabbixProtocol.read(new ByteArrayInputStream(request)));
+    }
+
+    @Test
+    public void rejectsPacketsAboveTheLimit()
+    {
+        byte[] frame = new byte[13];
+        System.arraycopy(ZabbixProtocol.HEADER, 0, frame, 0, 4);
+        frame[4] = ZabbixProtocol.FLAG_ZABBIX;
+        ZabbixProtocol.putIntLE(frame, 5, ZabbixProtocol.MAX_DATA_LENGTH + 1);
+        try {
+            ZabbixProtocol.read(new ByteArrayInputStream(frame));
+            fail("read a packet above the limit");
+        }
+        catch (IOException e) {
+            assertEquals("packet too large: " + (ZabbixProtocol.MAX_DATA_LENGTH + 1) + " bytes", e.getMessage());
+        }
+    }
+}
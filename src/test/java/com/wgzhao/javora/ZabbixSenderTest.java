@@ -0,0 +1,183 @@
+package com.wgzhao.javora;
+
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class ZabbixSenderTest
+{
+    private static final long CLOCK_MS = 1_700_000_000_123L;
+    private static final String REFUSED = "{\"response\":\"failed\",\"info\":\"host is not monitored\"}";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private FakeTrapper trapper;
+
+    @Before
+    public void setUp()
+            throws IOException
+    {
+        trapper = new FakeTrapper();
+    }
+
+    @After
+    public void tearDown()
+            throws IOException
+    {
+        trapper.close();
+    }
+
+    @Test
+    public void framesEachRequest()
+    {
+        ZabbixSender sender = new ZabbixSender(trapper.getAddress(), 10, 100, 100);
+        sender.offer(Sample.of("db1", "javora[check_active]", "1", CLOCK_MS));
+        sender.close();
+
+        assertEquals(Arrays.asList(), trapper.getErrors());
+        assertEquals(1, trapper.getHeaders().size());
+        byte[] header = trapper.getHeaders().get(0);
+        assertArrayEquals(new byte[] {'Z', 'B', 'X', 'D', 0x01}, Arrays.copyOf(header, 5));
+        assertEquals(trapper.getPayloads().get(0).length, ZabbixProtocol.getIntLE(header, 5));
+        assertEquals(0, ZabbixProtocol.getIntLE(header, 9));
+    }
+
+    @Test
+    public void sendsEveryValueWithItsClock()
+    {
+        ZabbixSender sender = new ZabbixSender(trapper.getAddress(), 10, 100, 100);
+        sender.offer(Sample.of("db1", "javora[version]", "Oracle Database 11g", CLOCK_MS));
+        sender.close();
+
+        JSONObject request = trapper.getRequests().get(0);
+        assertEquals("sender data", request.get("request"));
+        JSONObject value = (JSONObject) ((JSONArray) request.get("data")).get(0);
+        assertEquals("db1", value.get("host"));
+        assertEquals("javora[version]", value.get("key"));
+        assertEquals("Oracle Database 11g", value.get("value"));
+        assertEquals(CLOCK_MS / 1000, value.get("clock"));
+        assertEquals(123_000_000L, value.get("ns"));
+    }
+
+    @Test
+    public void splitsIntoBatches()
+    {
+        ZabbixSender sender = new ZabbixSender(trapper.getAddress(), 250, 2000, 1000);
+        for (int i = 0; i < 600; i++) {
+            assertTrue(sender.offer(Sample.of("db1", "javora[commits]", String.valueOf(i), CLOCK_MS)));
+        }
+        sender.close();
+
+        List<Integer> sizes = new ArrayList<>();
+        List<String> values = new ArrayList<>();
+        for (JSONObject request : trapper.getRequests()) {
+            JSONArray data = (JSONArray) request.get("data");
+            sizes.add(data.size());
+            for (Object value : data) {
+                values.add((String) ((JSONObject) value).get("value"));
+            }
+        }
+        assertEquals(Arrays.asList(250, 250, 100), sizes);
+        for (int i = 0; i < 600; i++) {
+            assertEquals(String.valueOf(i), values.get(i));
+        }
+        assertEquals(3, sender.getBatches());
+        assertEquals(600, sender.getSent());
+    }
+
+    @Test
+    public void countsValuesTheServerFailed()
+    {
+        trapper.respondWith(data -> "{\"response\":\"success\",\"info\":\"processed: " + (data.size() - 2)
+                + "; failed: 2; total: " + data.size() + "; seconds spent: 0.000100\"}");
+        ZabbixSender sender = new ZabbixSender(trapper.getAddress(), 10, 100, 100);
+        for (int i = 0; i < 5; i++) {
+            sender.offer(Sample.of("db1", "javora[commits]", String.valueOf(i), CLOCK_MS));
+        }
+        sender.close();
+
+        assertEquals(1, sender.getBatches());
+        assertEquals(3, sender.getSent());
+        assertEquals(2, sender.getRejected());
+        assertEquals(0, sender.getSendErrors());
+    }
+
+    @Test
+    public void countsBatchesTheServerRefusedAsRejected()
+    {
+        trapper.respondWith(data -> REFUSED);
+        ZabbixSender sender = new ZabbixSender(trapper.getAddress(), 10, 100, 100);
+        for (int i = 0; i < 5; i++) {
+            sender.offer(Sample.of("db1", "javora[commits]", String.valueOf(i), CLOCK_MS));
+        }
+        sender.close();
+
+        assertEquals(0, sender.getSent());
+        assertEquals(5, sender.getRejected());
+        assertEquals(0, sender.getSendErrors());
+        assertEquals(0, sender.getDropped());
+    }
+
+    @Test
+    public void skipsSpooledBatchesTheServerRefused()
+            throws IOException, InterruptedException
+    {
+        AtomicInteger requests = new AtomicInteger();
+        trapper.respondWith(data -> {
+            switch (requests.incrementAndGet()) {
+                case 1:
+                    // not understood, spooled and sent again
+                    return "processed";
+                case 2:
+                    return REFUSED;
+                default:
+                    return FakeTrapper.processed(data);
+            }
+        });
+        ZabbixSender sender = new ZabbixSender(trapper.getAddress(), 5, 100, 100, new Spool(folder.getRoot().toPath()));
+        for (int i = 0; i < 10; i++) {
+            sender.offer(Sample.of("db1", "javora[commits]", String.valueOf(i), CLOCK_MS));
+        }
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (sender.getSent() < 5 && System.nanoTime() < deadline) {
+            Thread.sleep(50);
+        }
+        sender.close();
+
+        assertEquals(1, sender.getSendErrors());
+        assertEquals(5, sender.getRejected());
+        assertEquals(5, sender.getSent());
+        assertEquals(3, trapper.getRequests().size());
+        JSONObject last = (JSONObject) ((JSONArray) trapper.getRequests().get(2).get("data")).get(0);
+        assertEquals("5", last.get("value"));
+    }
+
+    @Test
+    public void dropsBatchesWithAnInvalidResponse()
+    {
+        trapper.respondWith(data -> "processed");
+        ZabbixSender sender = new ZabbixSender(trapper.getAddress(), 10, 100, 100);
+        sender.offer(Sample.of("db1", "javora[commits]", "1", CLOCK_MS));
+        sender.close();
+
+        assertEquals(0, sender.getSent());
+        assertEquals(1, sender.getSendErrors());
+        assertEquals(1, sender.getDropped());
+    }
+}